@@ -0,0 +1,72 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.util.Log;
+
+/**
+ * Minimal micro-benchmark harness for the instrumentation tests.
+ * <p>
+ *     JMH needs a JVM it can fork and does not run on Dalvik,
+ *     so the workloads are timed here instead: a few warm-up rounds
+ *     let the JIT compile them, then the fastest of the measured rounds
+ *     is reported as it is the one least disturbed by GC and scheduling.
+ *     The results of the workloads are accumulated into a volatile field
+ *     so their work can not be optimized away.
+ * </p>
+ */
+class Benchmark {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|BM";
+
+    /** The number of rounds run before measuring. */
+    private static final int WARMUP_ROUNDS = 5;
+    /** The number of measured rounds. */
+    private static final int MEASURED_ROUNDS = 10;
+
+    /** A piece of code to measure. */
+    interface Workload {
+
+        /**
+         * Runs the measured operation the given number of times.
+         * @return Any value depending on the results (to keep the work from being optimized away)
+         */
+        long run(int iterations);
+
+    }
+
+    /** Sink of the workload results. */
+    private static volatile long sink;
+
+    /** Static access only. */
+    private Benchmark() { }
+
+    /**
+     * Measures a workload.
+     * @param name       The name of the workload to log the result with
+     * @param iterations The number of operations in a round
+     * @param workload   The workload to measure
+     * @return The time of an operation in nanoseconds in the fastest round
+     */
+    static double measure(String name, int iterations, Workload workload) {
+        for(int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += workload.run(iterations);
+        }
+
+        long best = Long.MAX_VALUE;
+        for(int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += workload.run(iterations);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double perOperation = (double) best / iterations;
+        Log.i(LOG_TAG, name + ": " + String.format("%.1f", perOperation) + " ns/op");
+        return perOperation;
+    }
+
+    /** Logs the ratio of two measured times. */
+    static void report(String name, double baseline, double improved) {
+        Log.i(LOG_TAG, name + ": " + String.format("%.1f", baseline / improved) + "x speedup");
+    }
+
+}
@@ -0,0 +1,89 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Tests of the command queue: the order of the priority lanes,
+ * the order of commands in the same lane and the conflation
+ * of pending seek and volume commands.
+ */
+public class CommandQueueTest extends TestCase {
+
+    /** The queue under test. */
+    private CommandQueue queue;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        queue = new CommandQueue();
+    }
+
+    public void testHigherLanesAreTakenFirst() throws Exception {
+        queue.offer(new Command(Header.MSG_A_LIST_SETTINGS));
+        queue.offer(new Command(Header.MSG_A_LIST_FILES, "/media"));
+        queue.offer(new Command(Header.MSG_A_PAUSE));
+
+        assertEquals(Header.MSG_A_PAUSE, queue.take().getHeader());
+        assertEquals(Header.MSG_A_LIST_FILES, queue.take().getHeader());
+        assertEquals(Header.MSG_A_LIST_SETTINGS, queue.take().getHeader());
+    }
+
+    public void testCommandsOfTheSameLaneKeepTheirOrder() throws Exception {
+        queue.offer(new Command(Header.MSG_A_PAUSE));
+        queue.offer(new Command(Header.MSG_A_LIST_FILES, "/media"));
+        queue.offer(new Command(Header.MSG_A_SPEED_INC));
+        queue.offer(new Command(Header.MSG_A_START_VIDEO, "/media/video.mkv"));
+        queue.offer(new Command(Header.MSG_A_SUB_TOGGLE));
+
+        assertEquals(Header.MSG_A_PAUSE, queue.take().getHeader());
+        assertEquals(Header.MSG_A_SPEED_INC, queue.take().getHeader());
+        assertEquals(Header.MSG_A_SUB_TOGGLE, queue.take().getHeader());
+        assertEquals(Header.MSG_A_LIST_FILES, queue.take().getHeader());
+        assertEquals(Header.MSG_A_START_VIDEO, queue.take().getHeader());
+    }
+
+    public void testLatestSeekAndVolumeWin() throws Exception {
+        queue.offer(new Command(Header.MSG_A_SEEK_TO, "1000"));
+        queue.offer(new Command(Header.MSG_A_SET_VOLUME, "-300"));
+        queue.offer(new Command(Header.MSG_A_PAUSE));
+        queue.offer(new Command(Header.MSG_A_SEEK_TO, "2000"));
+        queue.offer(new Command(Header.MSG_A_SET_VOLUME, "-600"));
+        queue.offer(new Command(Header.MSG_A_SEEK_TO, "3000"));
+
+        assertEquals(6L, queue.getOfferedCount());
+        assertEquals(3L, queue.getMergedCount());
+
+        // the pending commands keep their place but carry the latest target
+        Command seek = queue.take();
+        assertEquals(Header.MSG_A_SEEK_TO, seek.getHeader());
+        assertEquals("3000", seek.getStringData());
+
+        Command volume = queue.take();
+        assertEquals(Header.MSG_A_SET_VOLUME, volume.getHeader());
+        assertEquals("-600", volume.getStringData());
+
+        assertEquals(Header.MSG_A_PAUSE, queue.take().getHeader());
+    }
+
+    public void testSeekAfterTheSentOneIsQueued() throws Exception {
+        queue.offer(new Command(Header.MSG_A_SEEK_TO, "1000"));
+        assertEquals("1000", queue.take().getStringData());
+
+        queue.offer(new Command(Header.MSG_A_SEEK_TO, "2000"));
+        assertEquals(0L, queue.getMergedCount());
+        assertEquals("2000", queue.take().getStringData());
+    }
+
+    public void testOtherCommandsAreNotConflated() throws Exception {
+        queue.offer(new Command(Header.MSG_A_SPEED_INC));
+        queue.offer(new Command(Header.MSG_A_SPEED_INC));
+
+        assertEquals(0L, queue.getMergedCount());
+        assertEquals(Header.MSG_A_SPEED_INC, queue.take().getHeader());
+        assertEquals(Header.MSG_A_SPEED_INC, queue.take().getHeader());
+    }
+
+}
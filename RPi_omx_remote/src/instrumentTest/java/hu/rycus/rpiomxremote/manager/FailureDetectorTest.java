@@ -0,0 +1,87 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the phi accrual failure detector with synthetic arrival times:
+ * the suspicion level rises during silence, crosses the threshold
+ * only well after the usual gap and grows slower for irregular arrivals.
+ */
+public class FailureDetectorTest extends TestCase {
+
+    /** The time of the first arrival in the tests. */
+    private static final long START = 10000L;
+
+    /** The detector under test. */
+    private FailureDetector detector;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        detector = new FailureDetector();
+    }
+
+    public void testNoSuspicionBeforeTheFirstArrival() {
+        assertEquals(0.0, detector.phi(START));
+        assertEquals(0.0, detector.phi(START + 60000L));
+    }
+
+    public void testSuspicionRisesDuringSilence() {
+        long last = arrive(START, 500L, 500L, 50);
+
+        double previous = detector.phi(last);
+        assertTrue(previous < 1.0);
+
+        for(long silence = 100L; silence <= 3000L; silence += 100L) {
+            double phi = detector.phi(last + silence);
+            assertTrue("phi should not fall at " + silence + " ms", phi >= previous);
+            previous = phi;
+        }
+
+        assertTrue(detector.phi(last + 1000L) < FailureDetector.DEFAULT_THRESHOLD);
+        assertTrue(detector.phi(last + 3000L) > FailureDetector.DEFAULT_THRESHOLD);
+    }
+
+    public void testArrivalClearsSuspicion() {
+        long last = arrive(START, 500L, 500L, 50);
+        assertTrue(detector.phi(last + 3000L) > FailureDetector.DEFAULT_THRESHOLD);
+
+        detector.heartbeat(last + 3000L);
+        assertTrue(detector.phi(last + 3000L) < 1.0);
+    }
+
+    public void testIrregularArrivalsAreToleratedLonger() {
+        long last = arrive(START, 500L, 500L, 50);
+        double regular = detector.phi(last + 2000L);
+
+        detector.reset();
+        last = arrive(START, 100L, 900L, 50);
+        double irregular = detector.phi(last + 2000L);
+
+        assertTrue("irregular " + irregular + " vs regular " + regular, irregular < regular);
+        assertTrue(irregular < FailureDetector.DEFAULT_THRESHOLD);
+    }
+
+    public void testResetDropsTheWindow() {
+        long last = arrive(START, 500L, 500L, 50);
+        detector.reset();
+
+        assertEquals(0.0, detector.phi(last + 3000L));
+    }
+
+    /**
+     * Registers arrivals alternating between the two gaps.
+     * @return The time of the last arrival
+     */
+    private long arrive(long start, long oddGap, long evenGap, int count) {
+        long now = start;
+        detector.heartbeat(now);
+        for(int index = 1; index < count; index++) {
+            now += index % 2 == 1 ? oddGap : evenGap;
+            detector.heartbeat(now);
+        }
+        return now;
+    }
+
+}
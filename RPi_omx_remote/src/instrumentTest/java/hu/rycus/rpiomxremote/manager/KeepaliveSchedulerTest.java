@@ -0,0 +1,143 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the keep-alive scheduler driven with synthetic times:
+ * the probe timeout follows the measured round-trip time within its bounds
+ * and doubles while probes are left unanswered, and the timer does not
+ * wake up continuously while logging in.
+ */
+public class KeepaliveSchedulerTest extends TestCase {
+
+    /** The time the scheduler is started in the tests. */
+    private static final long START = 10000L;
+
+    /** The scheduler under test. */
+    private RecordingScheduler scheduler;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = new RecordingScheduler();
+    }
+
+    public void testRtoIsClampedToItsBounds() {
+        assertEquals(KeepaliveScheduler.INITIAL_RTO, scheduler.getRto());
+
+        for(int index = 0; index < 20; index++) {
+            scheduler.onRttSample(1L);
+        }
+        assertEquals(KeepaliveScheduler.MIN_RTO, scheduler.getRto());
+
+        for(int index = 0; index < 20; index++) {
+            scheduler.onRttSample(60000L);
+        }
+        assertEquals(KeepaliveScheduler.MAX_RTO, scheduler.getRto());
+    }
+
+    public void testRtoFollowsTheMeasuredRoundTripTime() {
+        scheduler.onRttSample(300L);
+        assertEquals(300L, scheduler.getSmoothedRtt());
+        assertEquals(300L + 4 * 150L, scheduler.getRto());
+    }
+
+    public void testRtoDoublesWhileProbesAreUnanswered() {
+        long last = connect();
+        scheduler.setLatencyBudget(60000L);
+        scheduler.onRttSample(300L);
+        assertEquals(900L, scheduler.getRto());
+
+        // nothing was sent for a while, the first run probes
+        scheduler.run(last + 100L);
+        assertEquals(1, scheduler.probes);
+        assertEquals(last + 100L + 900L, scheduler.getDeadline());
+
+        scheduler.run(scheduler.getDeadline());
+        assertEquals(2, scheduler.probes);
+        assertEquals(1800L, scheduler.getRto());
+
+        scheduler.run(scheduler.getDeadline());
+        assertEquals(3, scheduler.probes);
+        assertEquals(KeepaliveScheduler.MAX_RTO, scheduler.getRto());
+
+        scheduler.run(scheduler.getDeadline());
+        assertEquals(4, scheduler.probes);
+        assertEquals(KeepaliveScheduler.MAX_RTO, scheduler.getRto());
+        assertEquals(0, scheduler.losses);
+        assertTrue(scheduler.getLossRate() > 0.0);
+
+        // the echo of a repeated probe is not timed, a new measurement drops the backoff
+        scheduler.onReceive(scheduler.getDeadline(), true);
+        assertEquals(KeepaliveScheduler.MAX_RTO, scheduler.getRto());
+
+        scheduler.onRttSample(300L);
+        assertTrue(scheduler.getRto() < 900L);
+    }
+
+    public void testLoginDoesNotBusyWake() {
+        scheduler.start(START);
+
+        // probes are not sent while logging in, so nothing moves the send time
+        long now = START;
+        int runs = 0;
+        while(now < START + 10000L) {
+            long deadline = scheduler.getDeadline();
+            assertTrue("the timer should wait after " + now, deadline > now);
+
+            now = deadline;
+            scheduler.run(now);
+            runs++;
+        }
+
+        assertEquals(4, runs);
+        assertEquals(4, scheduler.probes);
+        assertEquals(START + 5 * KeepaliveScheduler.UNCONNECTED_INTERVAL, scheduler.getDeadline());
+    }
+
+    public void testSentMessagesDelayTheKnock() {
+        scheduler.start(START);
+
+        scheduler.onSend(START + 2000L);
+        scheduler.run(START + KeepaliveScheduler.UNCONNECTED_INTERVAL);
+
+        assertEquals(0, scheduler.probes);
+        assertEquals(START + 2000L + KeepaliveScheduler.UNCONNECTED_INTERVAL, scheduler.getDeadline());
+    }
+
+    /**
+     * Starts the scheduler and registers irregular arrivals,
+     * so the suspicion level rises slowly during the silence after them.
+     * @return The time of the last arrival
+     */
+    private long connect() {
+        scheduler.start(START);
+
+        long now = START;
+        for(int index = 0; index < 20; index++) {
+            now += index % 2 == 0 ? 1000L : 7000L;
+            scheduler.onReceive(now, false);
+        }
+        return now;
+    }
+
+    /** Scheduler counting the probes and the lost sessions instead of sending. */
+    private static class RecordingScheduler extends KeepaliveScheduler {
+
+        /** The number of probes sent. */
+        int probes = 0;
+        /** The number of times the session was considered lost. */
+        int losses = 0;
+
+        /** @see KeepaliveScheduler#sendProbe() */
+        @Override
+        void sendProbe() { probes++; }
+
+        /** @see KeepaliveScheduler#sessionLost() */
+        @Override
+        void sessionLost() { losses++; }
+
+    }
+
+}
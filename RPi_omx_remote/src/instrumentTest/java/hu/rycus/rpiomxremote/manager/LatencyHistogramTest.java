@@ -0,0 +1,88 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the bucket and percentile math of the latency histogram:
+ * small values are exact, larger ones are estimated from above within 25%
+ * and values beyond the last bucket are reported by the maximum.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    /** The histogram under test. */
+    private LatencyHistogram histogram;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        histogram = new LatencyHistogram();
+    }
+
+    public void testEmptyHistogram() {
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getMax());
+        assertEquals(0L, histogram.getPercentile(50.0));
+    }
+
+    public void testSmallValuesAreExact() {
+        for(long value = 0L; value < 8L; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(8L, histogram.getCount());
+        assertEquals(0L, histogram.getPercentile(0.0));
+        assertEquals(0L, histogram.getPercentile(12.5));
+        assertEquals(3L, histogram.getPercentile(50.0));
+        assertEquals(5L, histogram.getPercentile(75.0));
+        assertEquals(7L, histogram.getPercentile(100.0));
+    }
+
+    public void testEstimatesAreWithinTheBucketError() {
+        for(long value = 1L; value <= 100000L; value += 1 + value / 7) {
+            LatencyHistogram single = new LatencyHistogram();
+            single.record(value);
+            // a larger value keeps the maximum from capping the estimate
+            single.record(1000000L);
+
+            long estimate = single.getPercentile(50.0);
+            assertTrue(value + " estimated as " + estimate, estimate >= value);
+            assertTrue(value + " estimated as " + estimate, estimate <= value + value / 4);
+        }
+    }
+
+    public void testPercentilesRankTheRecordedValues() {
+        for(long value = 1L; value <= 100L; value++) {
+            histogram.record(value);
+        }
+
+        long median = histogram.getPercentile(50.0);
+        assertTrue("median " + median, median >= 50L && median <= 62L);
+
+        long p90 = histogram.getPercentile(90.0);
+        assertTrue("p90 " + p90, p90 >= 90L && p90 <= 100L);
+
+        // the estimate never exceeds the largest value
+        assertEquals(100L, histogram.getPercentile(99.0));
+        assertEquals(100L, histogram.getPercentile(150.0));
+        assertEquals(histogram.getPercentile(0.0), histogram.getPercentile(-10.0));
+    }
+
+    public void testValuesBeyondTheLastBucketReportTheMaximum() {
+        histogram.record(3L);
+        histogram.record(500000L);
+
+        assertEquals(500000L, histogram.getMax());
+        assertEquals(500000L, histogram.getPercentile(100.0));
+        assertEquals(3L, histogram.getPercentile(50.0));
+    }
+
+    public void testNegativeLatencyIsRecordedAsZero() {
+        histogram.record(-5L);
+
+        assertEquals(1L, histogram.getCount());
+        assertEquals(0L, histogram.getMax());
+        assertEquals(0L, histogram.getPercentile(100.0));
+    }
+
+}
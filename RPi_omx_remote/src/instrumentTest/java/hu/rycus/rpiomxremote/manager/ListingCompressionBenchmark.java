@@ -0,0 +1,156 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Compares plain and compressed file listing responses of 1k, 10k and 50k entries:
+ * the number of datagrams the server has to send and the time the client needs
+ * from the first fragment to the parsed list (reassembly, decompression and splitting)
+ * are logged for both.
+ */
+public class ListingCompressionBenchmark extends TestCase {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|BM";
+
+    /** The contents carried by one datagram (a 1500 byte MTU without IP, UDP, header and flags). */
+    private static final int CHUNK_SIZE = 1500 - 28 - 2;
+    /** The maximum size of a reassembled message. */
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    public void test1000Entries() {
+        compare(1000);
+    }
+
+    public void test10000Entries() {
+        compare(10000);
+    }
+
+    public void test50000Entries() {
+        compare(50000);
+    }
+
+    /** Measures the plain and the compressed listing with the given number of entries. */
+    private void compare(int entries) {
+        final byte[] plain = createListing(entries).getBytes();
+        final byte[] compressed = compress(plain);
+
+        int plainDatagrams = countDatagrams(plain.length);
+        int compressedDatagrams = countDatagrams(compressed.length);
+
+        final String[] expected = parse(new Packet(Header.MSG_A_LIST_FILES, plain, 0, plain.length));
+        assertEquals(entries, expected.length);
+
+        double plainTime = Benchmark.measure("Listing " + entries + " entries plain", 1, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                return receive(plain, false).length;
+            }
+        });
+
+        double compressedTime = Benchmark.measure("Listing " + entries + " entries compressed", 1, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                return receive(compressed, true).length;
+            }
+        });
+
+        Log.i(LOG_TAG, "Listing " + entries + " entries: " +
+                plain.length + " bytes in " + plainDatagrams + " datagrams (" + (long) (plainTime / 1000) + " us) vs " +
+                compressed.length + " bytes in " + compressedDatagrams + " datagrams (" + (long) (compressedTime / 1000) + " us)");
+
+        assertTrue(Arrays.equals(expected, receive(compressed, true)));
+        assertTrue(compressedDatagrams < plainDatagrams);
+    }
+
+    /**
+     * Receives a listing the way the network handler does: in datagram sized fragments
+     * through the multipart assembler, then inflated if compressed and parsed like
+     * the remote manager parses the response.
+     */
+    private static String[] receive(byte[] contents, boolean compressed) {
+        MultipartAssembler assembler = new MultipartAssembler(MAX_SIZE, 60000L);
+        PayloadInflater inflater = new PayloadInflater(MAX_SIZE);
+
+        byte[] datagram = new byte[CHUNK_SIZE];
+        Packet fragment = new Packet(0, null, 0, 0);
+        Packet packet = null;
+
+        try {
+            for(int offset = 0; offset < contents.length; offset += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, contents.length - offset);
+                System.arraycopy(contents, offset, datagram, 0, length);
+
+                fragment.reset(Header.MSG_A_LIST_FILES, datagram, 0, length);
+                packet = assembler.append(fragment, offset + length >= contents.length, 0L);
+            }
+
+            assertNotNull(packet);
+            if(compressed) {
+                packet = inflater.inflate(packet);
+                assertNotNull(packet);
+            }
+
+            return parse(packet);
+        } finally {
+            inflater.close();
+        }
+    }
+
+    /** Returns the files of the listing the way the remote manager parses it. */
+    private static String[] parse(Packet response) {
+        String[] parts = response.getData().split("\\|{2}");
+        return parts.length > 1 ? parts[1].split("\\|") : new String[0];
+    }
+
+    /** Returns the number of datagrams needed for contents with the given length. */
+    private static int countDatagrams(int length) {
+        return (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /** Compresses the contents as one zlib stream. */
+    private static byte[] compress(byte[] contents) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+
+            byte[] output = new byte[contents.length + 64];
+            int length = 0;
+            while(!deflater.finished()) {
+                if(length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+
+            return Arrays.copyOf(output, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Creates the contents of a listing response of a media directory with the given number of files. */
+    private static String createListing(int entries) {
+        StringBuilder builder = new StringBuilder("/media/videos||");
+        for(int index = 0; index < entries; index++) {
+            if(index > 0) builder.append('|');
+
+            int show = index / 200;
+            int season = index / 20 % 10 + 1;
+            int episode = index % 20 + 1;
+            builder.append("Show ").append(show).append("/Season ").append(season)
+                    .append("/Show.").append(show).append(".S").append(season < 10 ? "0" : "").append(season)
+                    .append('E').append(episode < 10 ? "0" : "").append(episode).append(".720p.HDTV.x264.mkv");
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,127 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Compares routing messages through the header-indexed handler table of the dispatcher
+ * with the boxed header set lookup and switch statement it replaced (results are logged).
+ * Only the routing is measured, not the queue of the dispatcher thread.
+ */
+public class PacketDispatchBenchmark extends TestCase {
+
+    /** The number of messages routed in a round. */
+    private static final int ITERATIONS = 200000;
+
+    /** The received messages (mostly player states with some responses of requests). */
+    private final Packet[] packets = new Packet[64];
+
+    /** The number of messages processed by each header. */
+    private final long[] processed = new long[256];
+
+    /** The headers routed to the handlers by the previous code. */
+    private final Set<Integer> asynchHeaders = new HashSet<Integer>(Arrays.asList(
+            Header.MSG_A_KEEPALIVE,
+            Header.MSG_A_START_VIDEO,
+            Header.MSG_A_STOP_VIDEO,
+            Header.MSG_A_PLAYER_STATE,
+            Header.MSG_A_PLAYER_PARAMS,
+            Header.MSG_A_PLAYER_INFO,
+            Header.MSG_A_PLAYER_EXTRA
+    ));
+
+    /** The dispatcher routing by its handler table (its thread is not started). */
+    private PacketDispatcher dispatcher;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        int[] headers = {
+                Header.MSG_A_PLAYER_STATE, Header.MSG_A_PLAYER_STATE, Header.MSG_A_PLAYER_STATE,
+                Header.MSG_A_PLAYER_STATE, Header.MSG_A_KEEPALIVE, Header.MSG_A_PLAYER_STATE,
+                Header.MSG_A_PLAYER_STATE, Header.MSG_A_LIST_FILES, Header.MSG_A_PLAYER_INFO,
+                Header.MSG_A_PLAYER_STATE, Header.MSG_A_SET_VOLUME, Header.MSG_A_PLAYER_EXTRA
+        };
+        for(int index = 0; index < packets.length; index++) {
+            packets[index] = new Packet(headers[index % headers.length], "");
+        }
+
+        PacketHandler handler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { processed[packet.getHeader()]++; }
+        };
+
+        dispatcher = new PacketDispatcher(new LatencyStats());
+        for(Integer header : asynchHeaders) {
+            dispatcher.register(header, handler);
+        }
+    }
+
+    public void testHandlerTableAgainstHeaderSetAndSwitch() {
+        double legacy = Benchmark.measure("Dispatch with header set and switch", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long responses = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    Packet packet = packets[index & 63];
+                    if(asynchHeaders.contains(packet.getHeader())) {
+                        processWithSwitch(packet);
+                    } else {
+                        responses++;
+                    }
+                }
+                return responses;
+            }
+        });
+
+        double table = Benchmark.measure("Dispatch with handler table", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long responses = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    Packet packet = packets[index & 63];
+                    PacketHandler handler = dispatcher.getHandler(packet.getHeader());
+                    if(handler != null) {
+                        handler.handle(packet);
+                    } else {
+                        responses++;
+                    }
+                }
+                return responses;
+            }
+        });
+
+        Benchmark.report("Dispatch table", legacy, table);
+        assertTrue(processed[Header.MSG_A_PLAYER_STATE] > 0L);
+    }
+
+    /** Processes a message the way the remote manager did before the handler table. */
+    private void processWithSwitch(Packet packet) {
+        switch (packet.getHeader()) {
+            case Header.MSG_A_START_VIDEO:
+            case Header.MSG_A_PLAYER_PARAMS:
+                processed[packet.getHeader()]++;
+                break;
+            case Header.MSG_A_STOP_VIDEO:
+                processed[Header.MSG_A_STOP_VIDEO]++;
+                break;
+            case Header.MSG_A_PLAYER_STATE:
+                processed[Header.MSG_A_PLAYER_STATE]++;
+                break;
+            case Header.MSG_A_PLAYER_INFO:
+                processed[Header.MSG_A_PLAYER_INFO]++;
+                break;
+            case Header.MSG_A_PLAYER_EXTRA:
+                processed[Header.MSG_A_PLAYER_EXTRA]++;
+                break;
+        }
+    }
+
+}
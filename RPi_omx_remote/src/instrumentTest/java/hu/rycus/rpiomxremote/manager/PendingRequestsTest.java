@@ -0,0 +1,133 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Tests of matching responses to the requests waiting for them:
+ * late responses of timed out requests, the grace period of abandoned requests,
+ * file list responses matched by the directory they echo
+ * and the notification of cancelled requests.
+ */
+public class PendingRequestsTest extends TestCase {
+
+    /** The time in milliseconds a request waits for its response in the tests. */
+    private static final long TIMEOUT = 1000L;
+
+    /** The requests under test. */
+    private PendingRequests requests;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        requests = new PendingRequests();
+    }
+
+    public void testResponsesCompleteRequestsInOrder() {
+        ResponseFuture first = register(Header.MSG_A_LIST_SETTINGS, 0L, null);
+        ResponseFuture second = register(Header.MSG_A_LIST_SETTINGS, 10L, null);
+
+        assertSame(first, requests.complete(response(Header.MSG_A_LIST_SETTINGS, "a")));
+        assertSame(second, requests.complete(response(Header.MSG_A_LIST_SETTINGS, "b")));
+        assertNull(requests.complete(response(Header.MSG_A_LIST_SETTINGS, "c")));
+    }
+
+    public void testLateResponseIsConsumedByItsTimedOutRequest() throws Exception {
+        ResponseFuture abandoned = register(Header.MSG_A_LIST_SETTINGS, 0L, null);
+        requests.expire(TIMEOUT);
+        assertTrue(abandoned.isTimedOut());
+
+        ResponseFuture retry = register(Header.MSG_A_LIST_SETTINGS, TIMEOUT + 10L, null);
+
+        assertSame(abandoned, requests.complete(response(Header.MSG_A_LIST_SETTINGS, "late")));
+        assertFalse(retry.isDone());
+
+        Packet answer = response(Header.MSG_A_LIST_SETTINGS, "answer");
+        assertSame(retry, requests.complete(answer));
+        assertSame(answer, retry.get());
+    }
+
+    public void testAbandonedRequestIsDroppedAfterGracePeriod() {
+        register(Header.MSG_A_LIST_SETTINGS, 0L, null);
+        long next = requests.expire(TIMEOUT);
+        assertTrue(next > TIMEOUT);
+
+        assertEquals(0L, requests.expire(next));
+
+        ResponseFuture retry = register(Header.MSG_A_LIST_SETTINGS, next + 10L, null);
+        assertSame(retry, requests.complete(response(Header.MSG_A_LIST_SETTINGS, "answer")));
+    }
+
+    public void testFileListResponseCompletesRequestOfItsDirectory() throws Exception {
+        ResponseFuture abandoned = register(Header.MSG_A_LIST_FILES, 0L, "/media/videos/Show 1");
+        requests.expire(TIMEOUT);
+
+        ResponseFuture current = register(Header.MSG_A_LIST_FILES, TIMEOUT + 10L, "/media/videos/Show 2");
+
+        // the response of the timed out request was lost, the current one must not be dropped as late
+        Packet answer = response(Header.MSG_A_LIST_FILES, "/media/videos/Show 2/||Season 1/|Season 2/");
+        assertSame(current, requests.complete(answer));
+        assertSame(answer, current.get());
+        assertTrue(abandoned.isTimedOut());
+
+        assertNull(requests.complete(response(Header.MSG_A_LIST_FILES, "/media/videos/Show 3||")));
+    }
+
+    public void testEveryRequestIsNotifiedOnceWhenCancelled() {
+        final int[] notified = new int[2];
+        ResponseFuture.Callback callback = new ResponseFuture.Callback() {
+            @Override
+            public void onResponse(Packet response) {
+                notified[response == null ? 0 : 1]++;
+            }
+        };
+
+        ResponseFuture expired = requests.register(Header.MSG_A_LIST_FILES, 0L, TIMEOUT, null, callback);
+        requests.expire(TIMEOUT);
+        ResponseFuture waiting = requests.register(Header.MSG_A_LIST_FILES, TIMEOUT, 2 * TIMEOUT, null, callback);
+        ResponseFuture other = requests.register(Header.MSG_A_LIST_SETTINGS, TIMEOUT, 2 * TIMEOUT, null, callback);
+        assertEquals(1, notified[0]);
+
+        requests.cancelAll();
+
+        assertEquals(3, notified[0]);
+        assertEquals(0, notified[1]);
+        assertTrue(expired.isTimedOut());
+        assertTrue(waiting.isCancelled());
+        assertTrue(other.isCancelled());
+        assertNull(requests.complete(response(Header.MSG_A_LIST_FILES, "/media||")));
+    }
+
+    public void testDirectoriesAreComparedResolved() {
+        assertTrue(RemoteManager.isSameDirectory("/media/videos/Show 1/..", "/media/videos"));
+        assertTrue(RemoteManager.isSameDirectory("/media/./videos/", "/media/videos"));
+        assertTrue(RemoteManager.isSameDirectory(null, "/media/videos"));
+        assertTrue(RemoteManager.isSameDirectory("./Show 1", "/media/videos/Show 1"));
+        assertFalse(RemoteManager.isSameDirectory("/media/videos/Show 1", "/media/videos/Show 2"));
+        assertFalse(RemoteManager.isSameDirectory("/media/videos/Show 1/..", "/media/videos/Show 1"));
+    }
+
+    /** Registers a request sent at the given time, file list requests are matched by their directory. */
+    private ResponseFuture register(int header, long startTime, final String path) {
+        ResponseFuture.Matcher matcher = null;
+        if(path != null) {
+            matcher = new ResponseFuture.Matcher() {
+                @Override
+                public boolean matches(Packet response) {
+                    String data = response.getData();
+                    return RemoteManager.isSameDirectory(path, data.substring(0, data.indexOf("||")));
+                }
+            };
+        }
+
+        return requests.register(header, startTime, startTime + TIMEOUT, matcher, null);
+    }
+
+    /** Creates a response packet owning its contents. */
+    private static Packet response(int header, String data) {
+        return new Packet(header, data);
+    }
+
+}
@@ -0,0 +1,95 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the playback clock with synthetic report and query times:
+ * extrapolation from the report anchored half a round trip earlier,
+ * clamping to the video, pauses, seeks and the estimated drift.
+ */
+public class PlaybackClockTest extends TestCase {
+
+    /** The duration of the video in the tests. */
+    private static final long DURATION = 60000L;
+
+    /** The clock under test. */
+    private PlaybackClock clock;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clock = new PlaybackClock();
+        clock.start(DURATION);
+    }
+
+    public void testNoPositionBeforeTheFirstReport() {
+        assertFalse(clock.isRunning());
+        assertEquals(0L, clock.getPosition(10000L));
+    }
+
+    public void testPositionIsExtrapolatedFromHalfARoundTripEarlier() {
+        clock.onReport(10000L, false, 5000L, 200L);
+
+        assertTrue(clock.isRunning());
+        assertEquals(10100L, clock.getPosition(5000L));
+        assertEquals(11100L, clock.getPosition(6000L));
+    }
+
+    public void testPositionIsClampedToTheVideo() {
+        clock.onReport(10000L, false, 5000L, 0L);
+
+        assertEquals(DURATION, clock.getPosition(5000L + DURATION));
+        assertEquals(0L, clock.getPosition(5000L - 20000L));
+    }
+
+    public void testPausedPositionDoesNotMove() {
+        clock.onReport(10000L, true, 5000L, 200L);
+
+        assertFalse(clock.isRunning());
+        assertEquals(10000L, clock.getPosition(5000L));
+        assertEquals(10000L, clock.getPosition(15000L));
+    }
+
+    public void testSeekIsFollowedImmediately() {
+        clock.onReport(10000L, false, 5000L, 0L);
+        clock.onReport(40000L, false, 6000L, 0L);
+
+        assertEquals(40000L, clock.getPosition(6000L));
+        assertEquals(41000L, clock.getPosition(7000L));
+        assertEquals(1.0, clock.getRate());
+    }
+
+    public void testDriftIsEstimatedFromContinuousPlayback() {
+        report(1.02, 30);
+
+        double rate = clock.getRate();
+        assertTrue("rate " + rate, rate > 1.015 && rate <= 1.02);
+
+        // between reports the position follows the remote rate
+        long position = clock.getPosition(35000L);
+        assertTrue("position " + position, Math.abs(position - (10000L + (long) (30000 * 1.02))) <= 10L);
+    }
+
+    public void testImplausibleDriftIsIgnored() {
+        report(1.1, 30);
+        assertEquals(1.0, clock.getRate());
+    }
+
+    public void testStopDropsThePosition() {
+        clock.onReport(10000L, false, 5000L, 0L);
+        clock.stop();
+
+        assertFalse(clock.isRunning());
+        assertEquals(0L, clock.getPosition(6000L));
+    }
+
+    /** Reports a playback progressing at the given rate every second (without round-trip time). */
+    private void report(double rate, int count) {
+        for(int index = 0; index <= count; index++) {
+            long elapsed = index * 1000L;
+            clock.onReport(10000L + (long) (elapsed * rate), false, 5000L + elapsed, 0L);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the single pass player parameter and information parsers
+ * with the regular expression chains they replaced (results are logged).
+ */
+public class PlayerMessageParserBenchmark extends TestCase {
+
+    /** The number of messages parsed in a round. */
+    private static final int ITERATIONS = 5000;
+
+    /** Player parameter messages of different videos. */
+    private final String[] params = new String[16];
+    /** Player information messages of shows and movies. */
+    private final String[] infos = new String[16];
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        for(int index = 0; index < params.length; index++) {
+            params[index] = "d" + (2400000 + index * 60000) + "v-" + (index * 300) +
+                    "|/media/videos/Show " + index + "/Season 01/Show.S01E" + (10 + index) + ".720p.mkv";
+
+            if(index % 2 == 0) {
+                infos[index] = "SHOW$Show " + index + "$S01E" + (10 + index);
+            } else {
+                infos[index] = "MOVIE$Movie " + index + "$Y" + (1990 + index);
+            }
+        }
+    }
+
+    public void testParamsParserAgainstRegularExpressions() {
+        double regex = Benchmark.measure("Player params with regular expressions", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    sum += parseParamsWithRegularExpressions(params[index & 15]);
+                }
+                return sum;
+            }
+        });
+
+        double parsed = Benchmark.measure("Player params with the parser", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    PlayerMessageParser.Params result = PlayerMessageParser.parseParams(params[index & 15]);
+                    sum += result.duration + result.volume + result.filename.length();
+                }
+                return sum;
+            }
+        });
+
+        Benchmark.report("Player params parser", regex, parsed);
+    }
+
+    public void testInfoParserAgainstRegularExpressions() {
+        double regex = Benchmark.measure("Player info with regular expressions", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    sum += parseInfoWithRegularExpressions(infos[index & 15]);
+                }
+                return sum;
+            }
+        });
+
+        double parsed = Benchmark.measure("Player info with the parser", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    PlayerMessageParser.Info result = PlayerMessageParser.parseInfo(infos[index & 15]);
+                    sum += result.title.length() + result.season + result.episode + result.year;
+                }
+                return sum;
+            }
+        });
+
+        Benchmark.report("Player info parser", regex, parsed);
+    }
+
+    /** Parses player parameters the way the remote manager did before the parser. */
+    private static long parseParamsWithRegularExpressions(String parameter) {
+        String pattern = "d([0-9]+)v([0-9\\-]+)\\|(.*)";
+        long duration = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
+        long volume   = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
+        String fname  = parameter.replaceFirst(pattern, "$3");
+
+        return duration + volume + fname.length();
+    }
+
+    /** Parses player information the way the remote manager did before the parser. */
+    private static long parseInfoWithRegularExpressions(String parameter) {
+        if(parameter.matches("SHOW\\$.*\\$.*")) {
+            String title = parameter.replaceFirst("SHOW\\$(.*)\\$.*", "$1");
+            String info  = parameter.replaceFirst("SHOW\\$.*\\$(.*)", "$1");
+
+            int season  = 0;
+            int episode = 0;
+
+            if(info.matches("S[0-9]+.*")) {
+                season  = Integer.parseInt( info.replaceFirst("S([0-9]+).*", "$1") );
+                info    = info.replaceFirst("S[0-9]+(.*)", "$1");
+            }
+            if(info.matches("E[0-9]+.*")) {
+                episode = Integer.parseInt( info.replaceFirst("E([0-9]+).*", "$1") );
+            }
+
+            return title.length() + season + episode;
+        } else if(parameter.matches("MOVIE\\$.*\\$.*")) {
+            String title = parameter.replaceFirst("MOVIE\\$(.*)\\$.*", "$1");
+            String info  = parameter.replaceFirst("MOVIE\\$.*\\$(.*)", "$1");
+
+            int year = 0;
+            if(info.matches("Y[0-9]+.*")) {
+                year = Integer.parseInt( info.replaceFirst("Y([0-9]+).*", "$1") );
+            }
+
+            return title.length() + year;
+        }
+
+        return 0L;
+    }
+
+}
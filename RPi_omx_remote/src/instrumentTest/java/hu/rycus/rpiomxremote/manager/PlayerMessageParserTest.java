@@ -0,0 +1,215 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the player parameter and information parsers with valid, malformed
+ * and truncated messages and their parity with the regular expression based
+ * parsing they replaced.
+ */
+public class PlayerMessageParserTest extends TestCase {
+
+    /** Player parameter messages checked for parity with the regular expression based parsing. */
+    private static final String[] PARITY_PARAMS = {
+            "d5400000v-600|movie.mkv", "d0v0|", "d1v2|a|b.avi", "d007v-007|x",
+            "", "d", "d1", "d1v", "d1v2", "d1v-|f", "dv2|f", "d1v|f", "d-1v2|f",
+            "d1v2f", "d1v2-3|f", "d1v--2|f", "x1v2|f", "xd1v2|f", " d1v2|f", "d1x2|f",
+            "dabcv2|f", "d1vabc|f", "d1.5v2|f",
+            "d9223372036854775807v0|f", "d9223372036854775808v0|f",
+            "d0v-9223372036854775808|f", "d99999999999999999999999v0|f"
+    };
+
+    /** Player information messages checked for parity with the regular expression based parsing. */
+    private static final String[] PARITY_INFO = {
+            "SHOW$Breaking Bad$S05E14", "SHOW$Title$S1", "SHOW$Title$E7", "SHOW$Title$",
+            "SHOW$Title$E7S1", "SHOW$Title$S01E02rest", "SHOW$A $ B$S3E4", "SHOW$$S1E1",
+            "SHOW$Title$SE1", "SHOW$Title$S1E", "SHOW$Title$x", "SHOW$Title$S99999999999E1",
+            "SHOW$Title$S1E99999999999", "SHOW$Title$S2147483647E1",
+            "MOVIE$Inception$Y2010", "MOVIE$Inception$", "MOVIE$Inception$Y", "MOVIE$A$B$Y1999",
+            "MOVIE$Title$Yabc", "MOVIE$Title$Y99999999999",
+            "", "$", "$$", "SHOW", "SHOW$", "SHOW$Title", "MOVIE$Title", "SHOWX$Title$S1",
+            "XSHOW$Title$S1", "show$Title$S1", "UNKNOWN", "UNKNOWN$a$b", "MOVIES$Title$Y2000"
+    };
+
+    public void testParams() {
+        PlayerMessageParser.Params params = PlayerMessageParser.parseParams("d5400000v-600|dir/movie.mkv");
+
+        assertNotNull(params);
+        assertEquals(5400000L, params.duration);
+        assertEquals(-600L, params.volume);
+        assertEquals("dir/movie.mkv", params.filename);
+    }
+
+    public void testParamsEmptyPayload() {
+        assertNull(PlayerMessageParser.parseParams(null));
+        assertNull(PlayerMessageParser.parseParams(""));
+    }
+
+    public void testParamsTruncated() {
+        String message = "d5400000v-600|";
+        for(int length = 0; length < message.length(); length++) {
+            assertNull(message.substring(0, length), PlayerMessageParser.parseParams(message.substring(0, length)));
+        }
+
+        assertNotNull(PlayerMessageParser.parseParams(message));
+    }
+
+    public void testParamsMissingFields() {
+        assertNull(PlayerMessageParser.parseParams("v-600|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("d5400000|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("dv-600|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("d5400000v|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("d5400000v-600movie.mkv"));
+    }
+
+    public void testParamsNonNumeric() {
+        assertNull(PlayerMessageParser.parseParams("dabcv-600|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("d5400000vabc|movie.mkv"));
+        assertNull(PlayerMessageParser.parseParams("d5400000v-6-00|movie.mkv"));
+    }
+
+    public void testParamsOversized() {
+        assertNotNull(PlayerMessageParser.parseParams("d9223372036854775807v0|f"));
+        assertNull(PlayerMessageParser.parseParams("d9223372036854775808v0|f"));
+        assertNull(PlayerMessageParser.parseParams("d99999999999999999999999v0|f"));
+    }
+
+    public void testShow() {
+        PlayerMessageParser.Info info = PlayerMessageParser.parseInfo("SHOW$Breaking Bad$S05E14");
+
+        assertNotNull(info);
+        assertEquals(PlayerMessageParser.Info.TYPE_SHOW, info.type);
+        assertEquals("Breaking Bad", info.title);
+        assertEquals(5, info.season);
+        assertEquals(14, info.episode);
+    }
+
+    public void testShowWithoutNumbers() {
+        PlayerMessageParser.Info info = PlayerMessageParser.parseInfo("SHOW$Title$");
+
+        assertNotNull(info);
+        assertEquals(PlayerMessageParser.Info.TYPE_SHOW, info.type);
+        assertEquals(PlayerMessageParser.Info.NONE, info.season);
+        assertEquals(PlayerMessageParser.Info.NONE, info.episode);
+    }
+
+    public void testMovie() {
+        PlayerMessageParser.Info info = PlayerMessageParser.parseInfo("MOVIE$Inception$Y2010");
+
+        assertNotNull(info);
+        assertEquals(PlayerMessageParser.Info.TYPE_MOVIE, info.type);
+        assertEquals("Inception", info.title);
+        assertEquals(2010, info.year);
+    }
+
+    public void testInfoEmptyPayload() {
+        assertNull(PlayerMessageParser.parseInfo(null));
+        assertEquals(PlayerMessageParser.Info.TYPE_UNKNOWN, PlayerMessageParser.parseInfo("").type);
+    }
+
+    public void testInfoTruncated() {
+        String message = "SHOW$Title$S05E14";
+        for(int length = 0; length <= message.length(); length++) {
+            assertNotNull(message.substring(0, length), PlayerMessageParser.parseInfo(message.substring(0, length)));
+        }
+    }
+
+    public void testInfoOversized() {
+        assertNull(PlayerMessageParser.parseInfo("SHOW$Title$S99999999999E1"));
+        assertNull(PlayerMessageParser.parseInfo("SHOW$Title$S1E99999999999"));
+        assertNull(PlayerMessageParser.parseInfo("MOVIE$Title$Y99999999999"));
+    }
+
+    public void testParamsParityWithRegularExpressions() {
+        for(String message : PARITY_PARAMS) {
+            Object[] expected = parseParamsWithRegularExpressions(message);
+            PlayerMessageParser.Params params = PlayerMessageParser.parseParams(message);
+
+            assertEquals(message, expected != null, params != null);
+            if(params != null) {
+                assertEquals(message, expected[0], params.duration);
+                assertEquals(message, expected[1], params.volume);
+                assertEquals(message, expected[2], params.filename);
+            }
+        }
+    }
+
+    public void testInfoParityWithRegularExpressions() {
+        for(String message : PARITY_INFO) {
+            Object[] expected = parseInfoWithRegularExpressions(message);
+            PlayerMessageParser.Info info = PlayerMessageParser.parseInfo(message);
+
+            assertEquals(message, expected != null, info != null);
+            if(info != null) {
+                assertEquals(message, expected[0], info.type);
+                assertEquals(message, expected[1], info.title);
+                assertEquals(message, expected[2], info.season);
+                assertEquals(message, expected[3], info.episode);
+                assertEquals(message, expected[4], info.year);
+            }
+        }
+    }
+
+    /**
+     * Parses player parameters the way the remote manager did before the parser.
+     * @return The duration, the volume and the filename or null if it failed
+     */
+    private static Object[] parseParamsWithRegularExpressions(String parameter) {
+        try {
+            String pattern = "d([0-9]+)v([0-9\\-]+)\\|(.*)";
+            long duration = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
+            long volume   = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
+            String fname  = parameter.replaceFirst(pattern, "$3");
+
+            return new Object[] { duration, volume, fname };
+        } catch(Exception ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses player information the way the remote manager did before the parser.
+     * @return The type, the title, the season, the episode and the year or null if it failed
+     */
+    private static Object[] parseInfoWithRegularExpressions(String parameter) {
+        final int none = PlayerMessageParser.Info.NONE;
+
+        try {
+            if(parameter.matches("SHOW\\$.*\\$.*")) {
+                String title = parameter.replaceFirst("SHOW\\$(.*)\\$.*", "$1");
+                String info  = parameter.replaceFirst("SHOW\\$.*\\$(.*)", "$1");
+
+                Integer season  = null;
+                Integer episode = null;
+
+                if(info.matches("S[0-9]+.*")) {
+                    season  = Integer.parseInt( info.replaceFirst("S([0-9]+).*", "$1") );
+                    info    = info.replaceFirst("S[0-9]+(.*)", "$1");
+                }
+                if(info.matches("E[0-9]+.*")) {
+                    episode = Integer.parseInt( info.replaceFirst("E([0-9]+).*", "$1") );
+                }
+
+                return new Object[] { PlayerMessageParser.Info.TYPE_SHOW, title,
+                        season != null ? season : none, episode != null ? episode : none, none };
+            } else if(parameter.matches("MOVIE\\$.*\\$.*")) {
+                String title = parameter.replaceFirst("MOVIE\\$(.*)\\$.*", "$1");
+                String info  = parameter.replaceFirst("MOVIE\\$.*\\$(.*)", "$1");
+
+                Integer year = null;
+
+                if(info.matches("Y[0-9]+.*")) {
+                    year = Integer.parseInt( info.replaceFirst("Y([0-9]+).*", "$1") );
+                }
+
+                return new Object[] { PlayerMessageParser.Info.TYPE_MOVIE, title,
+                        none, none, year != null ? year : none };
+            }
+
+            return new Object[] { PlayerMessageParser.Info.TYPE_UNKNOWN, null, none, none, none };
+        } catch(Exception ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Compares the player state decoder with the regular expression based parsing it replaced
+ * on the received bytes of typical player state messages (results are logged).
+ */
+public class PlayerStateDecoderBenchmark extends TestCase {
+
+    /** The number of messages decoded in a round. */
+    private static final int ITERATIONS = 20000;
+
+    /** The received messages (positions of a playback with varying volume and state). */
+    private final Packet[] packets = new Packet[64];
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        for(int index = 0; index < packets.length; index++) {
+            String message = "p" + (1234000L + index * 500L) + "v" + (-300 * (index % 7)) + (index % 5 == 0 ? "P" : "R");
+            byte[] bytes = message.getBytes();
+            packets[index] = new Packet(Header.MSG_A_PLAYER_STATE, bytes, 0, bytes.length);
+        }
+    }
+
+    public void testDecoderAgainstRegularExpressions() {
+        final PlayerStateDecoder decoder = new PlayerStateDecoder();
+
+        double regex = Benchmark.measure("Player state with regular expressions", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    // the previous code decoded the contents into a new String first
+                    Packet packet = packets[index & 63].detach();
+                    sum += decodeWithRegularExpressions(packet.getData());
+                }
+                return sum;
+            }
+        });
+
+        double decoded = Benchmark.measure("Player state with the decoder", ITERATIONS, new Benchmark.Workload() {
+            @Override
+            public long run(int iterations) {
+                long sum = 0L;
+                for(int index = 0; index < iterations; index++) {
+                    if(decoder.decode(packets[index & 63])) {
+                        sum += decoder.getPosition() + decoder.getVolume() + (decoder.isPaused() ? 1L : 0L);
+                    }
+                }
+                return sum;
+            }
+        });
+
+        Benchmark.report("Player state decoder", regex, decoded);
+    }
+
+    /** Parses the message the way the remote manager did before the decoder. */
+    private static long decodeWithRegularExpressions(String parameter) {
+        String pattern = "p([0-9]+)v([0-9\\-]+)([PR])";
+        long position  = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
+        long volume    = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
+        boolean paused = "P".equals( parameter.replaceFirst(pattern, "$3") );
+
+        return position + volume + (paused ? 1L : 0L);
+    }
+
+}
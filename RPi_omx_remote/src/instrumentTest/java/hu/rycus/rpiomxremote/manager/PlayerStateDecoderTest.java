@@ -0,0 +1,142 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Tests of the player state decoder with valid, malformed and truncated messages
+ * and its parity with the regular expression based parsing it replaced.
+ */
+public class PlayerStateDecoderTest extends TestCase {
+
+    /** Messages checked for parity with the regular expression based parsing. */
+    private static final String[] PARITY_MESSAGES = {
+            "p0v0R", "p125000v-600P", "p1v2R", "p000123v-000P", "p1v-0P",
+            "", "p", "pv", "p1", "p1v", "p1v2", "p1v-", "p1v-P", "pv1P", "p1vP",
+            "p-1v0P", "p1v2X", "p1v2p", "p1v2PR", "p1v2P ", " p1v2P", "xp1v2P", "p1v2Pjunk",
+            "p1v2-P", "p1v--2P", "p1v2-3P", "p1x2P", "q1v2P", "P1v2P", "p1.5v2P", "p1v2.5P",
+            "pabcv2P", "p1vabcP", "p1v2P\u0000",
+            "p9223372036854775807v0P", "p9223372036854775808v0P",
+            "p0v-9223372036854775808R", "p0v-9223372036854775809R",
+            "p00000000000000000000000001v1P", "p99999999999999999999999999v1P"
+    };
+
+    /** The decoder under test. */
+    private PlayerStateDecoder decoder;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        decoder = new PlayerStateDecoder();
+    }
+
+    public void testPlaying() {
+        assertTrue(decode("p125000v-600R"));
+        assertEquals(125000L, decoder.getPosition());
+        assertEquals(-600L, decoder.getVolume());
+        assertFalse(decoder.isPaused());
+    }
+
+    public void testPaused() {
+        assertTrue(decode("p0v300P"));
+        assertEquals(0L, decoder.getPosition());
+        assertEquals(300L, decoder.getVolume());
+        assertTrue(decoder.isPaused());
+    }
+
+    public void testEmptyPayload() {
+        assertFalse(decode(""));
+        assertFalse(decoder.decode(new Packet(Header.MSG_A_PLAYER_STATE, (String) null)));
+    }
+
+    public void testTruncated() {
+        String message = "p125000v-600P";
+        for(int length = 0; length < message.length(); length++) {
+            assertFalse(message.substring(0, length), decode(message.substring(0, length)));
+        }
+    }
+
+    public void testMissingFields() {
+        assertFalse(decode("v-600P"));
+        assertFalse(decode("p125000P"));
+        assertFalse(decode("p125000v-600"));
+        assertFalse(decode("pv-600P"));
+        assertFalse(decode("p125000vP"));
+    }
+
+    public void testNonNumeric() {
+        assertFalse(decode("pabcv-600P"));
+        assertFalse(decode("p125000vabcP"));
+        assertFalse(decode("p12a000v-600P"));
+        assertFalse(decode("p125000v-6-00P"));
+        assertFalse(decode("p125000v-600X"));
+    }
+
+    public void testOversized() {
+        assertTrue(decode("p9223372036854775807v0P"));
+        assertEquals(Long.MAX_VALUE, decoder.getPosition());
+
+        assertFalse(decode("p9223372036854775808v0P"));
+        assertFalse(decode("p99999999999999999999999999v0P"));
+    }
+
+    public void testFailureKeepsPreviousValues() {
+        assertTrue(decode("p1000v-300P"));
+        assertFalse(decode("p2000v-"));
+
+        assertEquals(1000L, decoder.getPosition());
+        assertEquals(-300L, decoder.getVolume());
+        assertTrue(decoder.isPaused());
+    }
+
+    public void testDecodesPacketBuffer() {
+        byte[] buffer = "##p42v7R##".getBytes();
+        Packet packet = new Packet(Header.MSG_A_PLAYER_STATE, buffer, 2, 6);
+
+        assertTrue(decoder.decode(packet));
+        assertEquals(42L, decoder.getPosition());
+        assertEquals(7L, decoder.getVolume());
+        assertFalse(decoder.isPaused());
+    }
+
+    public void testParityWithRegularExpressions() {
+        for(String message : PARITY_MESSAGES) {
+            long[] expected = decodeWithRegularExpressions(message);
+
+            boolean decoded = decode(message);
+            assertEquals(message, expected != null, decoded);
+
+            if(decoded) {
+                assertEquals(message, expected[0], decoder.getPosition());
+                assertEquals(message, expected[1], decoder.getVolume());
+                assertEquals(message, expected[2] != 0L, decoder.isPaused());
+            }
+        }
+    }
+
+    /** Decodes a message given as a String. */
+    private boolean decode(String message) {
+        byte[] bytes = message.getBytes();
+        return decoder.decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Parses the message the way the remote manager did before the decoder.
+     * @return The position, the volume and 1 if paused (0 if not) or null if it failed
+     */
+    private static long[] decodeWithRegularExpressions(String parameter) {
+        try {
+            String pattern = "p([0-9]+)v([0-9\\-]+)([PR])";
+            long position  = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
+            long volume    = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
+            boolean paused = "P".equals( parameter.replaceFirst(pattern, "$3") );
+
+            return new long[] { position, volume, paused ? 1L : 0L };
+        } catch(Exception ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+package hu.rycus.rpiomxremote.manager;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Tests of the reliable channel exchanging messages with a stand-in server
+ * that loses a configurable part of the datagrams and acknowledgements:
+ * retransmission until acknowledged, suppression of duplicates
+ * and the replay window across the wraparound of the sequence numbers.
+ */
+public class ReliableChannelTest extends TestCase {
+
+    /** The initial retransmission timeout used by the tests. */
+    private static final long RTO = 100L;
+
+    /** The channel under test. */
+    private ReliableChannel channel;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        channel = new ReliableChannel();
+    }
+
+    public void testAcknowledgedMessageIsNotRetransmitted() {
+        AckServer server = new AckServer();
+        ReliableChannel.Outgoing message = send(Header.MSG_A_START_VIDEO, 0L);
+
+        server.receive(message);
+        assertSame(message, channel.acknowledge(server.nextAck()));
+
+        List<ReliableChannel.Outgoing> retransmit = new ArrayList<ReliableChannel.Outgoing>();
+        List<ReliableChannel.Outgoing> abandoned = new ArrayList<ReliableChannel.Outgoing>();
+        assertEquals(0L, channel.collectDue(10 * RTO, retransmit, abandoned));
+        assertTrue(retransmit.isEmpty());
+        assertTrue(abandoned.isEmpty());
+    }
+
+    public void testLostMessageIsRetransmittedWithBackoff() {
+        AckServer server = new AckServer();
+        server.dropNext(2);
+
+        ReliableChannel.Outgoing message = send(Header.MSG_A_STOP_VIDEO, 0L);
+        server.receive(message);
+
+        long now = RTO;
+        long[] expectedDeadlines = { 3 * RTO, 7 * RTO };
+        for(long expected : expectedDeadlines) {
+            List<ReliableChannel.Outgoing> retransmit = new ArrayList<ReliableChannel.Outgoing>();
+            List<ReliableChannel.Outgoing> abandoned = new ArrayList<ReliableChannel.Outgoing>();
+
+            long next = channel.collectDue(now, retransmit, abandoned);
+            assertEquals(1, retransmit.size());
+            assertTrue(abandoned.isEmpty());
+            assertEquals(expected, next);
+
+            server.receive(retransmit.get(0));
+            now = next;
+        }
+
+        assertEquals(1, server.getProcessedCount());
+        assertSame(message, channel.acknowledge(server.nextAck()));
+        assertEquals(2, message.retransmits);
+    }
+
+    public void testUnansweredMessageIsAbandoned() {
+        ReliableChannel.Outgoing message = send(Header.MSG_A_SET_SETTING, 0L);
+
+        List<ReliableChannel.Outgoing> abandoned = new ArrayList<ReliableChannel.Outgoing>();
+        int retransmits = 0;
+        long now = 0L;
+        long next = message.deadline;
+
+        while(next > 0L) {
+            now = next;
+
+            List<ReliableChannel.Outgoing> retransmit = new ArrayList<ReliableChannel.Outgoing>();
+            next = channel.collectDue(now, retransmit, abandoned);
+            retransmits += retransmit.size();
+        }
+
+        assertEquals(1, abandoned.size());
+        assertSame(message, abandoned.get(0));
+        assertTrue(retransmits > 0);
+        assertNull(channel.acknowledge(message.sequence));
+    }
+
+    public void testLostAcknowledgementDoesNotDuplicateProcessing() {
+        AckServer server = new AckServer();
+        ReliableChannel.Outgoing message = send(Header.MSG_A_START_VIDEO, 0L);
+
+        // the server processes the message but its acknowledgement is lost
+        server.receive(message);
+        server.nextAck();
+
+        List<ReliableChannel.Outgoing> retransmit = new ArrayList<ReliableChannel.Outgoing>();
+        channel.collectDue(RTO, retransmit, new ArrayList<ReliableChannel.Outgoing>());
+        server.receive(retransmit.get(0));
+
+        assertEquals(1, server.getProcessedCount());
+        assertEquals(2, server.getAckCount());
+        assertSame(message, channel.acknowledge(server.nextAck()));
+        assertNull(channel.acknowledge(message.sequence));
+    }
+
+    public void testDuplicateReceivedMessagesAreSuppressed() {
+        assertTrue(channel.accept(10));
+        assertFalse(channel.accept(10));
+
+        assertTrue(channel.accept(12));
+        assertTrue(channel.accept(11));
+        assertFalse(channel.accept(11));
+        assertFalse(channel.accept(12));
+    }
+
+    public void testMessagesTooOldForTheWindowAreDropped() {
+        assertTrue(channel.accept(100));
+        assertTrue(channel.accept(200));
+
+        assertFalse(channel.accept(100));
+        assertFalse(channel.accept(136));
+        assertTrue(channel.accept(137));
+    }
+
+    public void testReplayWindowAcrossWraparound() {
+        assertTrue(channel.accept(0xFFFE));
+        assertTrue(channel.accept(0xFFFF));
+        assertTrue(channel.accept(0x0001));
+
+        // the skipped sequence number after the wraparound is still new
+        assertTrue(channel.accept(0x0000));
+
+        assertFalse(channel.accept(0xFFFE));
+        assertFalse(channel.accept(0xFFFF));
+        assertFalse(channel.accept(0x0000));
+        assertFalse(channel.accept(0x0001));
+
+        assertTrue(channel.accept(0x0002));
+    }
+
+    public void testOutgoingSequenceNumbersWrapAround() {
+        AckServer server = new AckServer();
+
+        for(int index = 0; index < 0x10000 + 10; index++) {
+            ReliableChannel.Outgoing message = send(Header.MSG_A_SET_SETTING, index);
+            assertEquals(index & 0xFFFF, message.sequence);
+
+            server.receive(message);
+            assertSame(message, channel.acknowledge(server.nextAck()));
+        }
+
+        assertEquals(0x10000 + 10, server.getProcessedCount());
+    }
+
+    public void testResetReturnsWaitingMessagesInOrder() {
+        ReliableChannel.Outgoing first = send(Header.MSG_A_START_VIDEO, 0L);
+        ReliableChannel.Outgoing second = send(Header.MSG_A_SET_SETTING, 1L);
+        ReliableChannel.Outgoing third = send(Header.MSG_A_STOP_VIDEO, 2L);
+        channel.acknowledge(second.sequence);
+        assertTrue(channel.accept(5));
+
+        List<ReliableChannel.Outgoing> waiting = channel.reset();
+        assertEquals(2, waiting.size());
+        assertSame(first, waiting.get(0));
+        assertSame(third, waiting.get(1));
+
+        assertNull(channel.acknowledge(first.sequence));
+        assertEquals(0L, channel.collectDue(100 * RTO,
+                new ArrayList<ReliableChannel.Outgoing>(), new ArrayList<ReliableChannel.Outgoing>()));
+
+        // the replay window starts over with the new session
+        assertTrue(channel.accept(5));
+    }
+
+    /** Registers a new outgoing message at the given time. */
+    private ReliableChannel.Outgoing send(int header, long now) {
+        return channel.register(header, new byte[] { (byte) header }, 0, now, RTO);
+    }
+
+    /**
+     * Stand-in for the server side of the reliable channel:
+     * it acknowledges every message it receives (again for duplicates)
+     * but processes each sequence number only once.
+     */
+    private static class AckServer {
+
+        /** The sequence numbers of the processed messages (of the current window). */
+        private final Set<Integer> processed = new LinkedHashSet<Integer>();
+        /** The acknowledgements not collected yet. */
+        private final List<Integer> acks = new ArrayList<Integer>();
+
+        /** The number of processed messages. */
+        private int processedCount = 0;
+        /** The number of acknowledgements sent. */
+        private int ackCount = 0;
+        /** The number of the next datagrams to lose. */
+        private int drop = 0;
+
+        /** Loses the given number of the next received datagrams. */
+        void dropNext(int count) {
+            drop = count;
+        }
+
+        /** Receives a (possibly retransmitted) message. */
+        void receive(ReliableChannel.Outgoing message) {
+            if(drop > 0) {
+                drop--;
+                return;
+            }
+
+            if(processed.add(message.sequence)) {
+                processedCount++;
+                if(processed.size() > 64) {
+                    processed.remove(processed.iterator().next());
+                }
+            }
+
+            acks.add(message.sequence);
+            ackCount++;
+        }
+
+        /** Returns the sequence number of the oldest acknowledgement not collected yet. */
+        int nextAck() {
+            assertFalse("no acknowledgement", acks.isEmpty());
+            return acks.remove(0);
+        }
+
+        /** Returns the number of processed messages. */
+        int getProcessedCount() { return processedCount; }
+
+        /** Returns the number of acknowledgements sent. */
+        int getAckCount() { return ackCount; }
+
+    }
+
+}
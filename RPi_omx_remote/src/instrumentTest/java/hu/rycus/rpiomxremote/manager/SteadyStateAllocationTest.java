@@ -0,0 +1,120 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.os.Debug;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Checks that a steady stream of player state messages is received, decoded
+ * and handed over to the dispatcher thread without allocating once the pools
+ * are warmed up, on both the receiving and the dispatcher thread.
+ */
+public class SteadyStateAllocationTest extends TestCase {
+
+    /** The number of messages processed before counting the allocations. */
+    private static final int WARMUP = 2000;
+    /** The number of messages processed while counting the allocations. */
+    private static final int MEASURED = 2000;
+
+    /** The received datagrams (header, flags and contents). */
+    private final byte[][] datagrams = new byte[16][];
+
+    /** The number of messages handled on the dispatcher thread. */
+    private volatile int handled = 0;
+    /** The allocations of the dispatcher thread while counting (-1 until counted). */
+    private volatile int dispatcherAllocations = -1;
+
+    /** The dispatcher under test. */
+    private PacketDispatcher dispatcher;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        for(int index = 0; index < datagrams.length; index++) {
+            byte[] contents = ("p" + (600000 + index * 250) + "v-300" + (index % 4 == 0 ? "P" : "R")).getBytes();
+
+            byte[] datagram = new byte[contents.length + 2];
+            datagram[0] = (byte) Header.MSG_A_PLAYER_STATE;
+            System.arraycopy(contents, 0, datagram, 2, contents.length);
+            datagrams[index] = datagram;
+        }
+
+        final PlayerStateDecoder decoder = new PlayerStateDecoder();
+
+        dispatcher = new PacketDispatcher(new LatencyStats());
+        dispatcher.register(Header.MSG_A_PLAYER_STATE, new PacketHandler() {
+            @Override
+            public void handle(Packet packet) {
+                assertTrue(decoder.decode(packet));
+
+                int count = handled + 1;
+                if(count == WARMUP) {
+                    Debug.resetThreadAllocCount();
+                } else if(count == WARMUP + MEASURED) {
+                    dispatcherAllocations = Debug.getThreadAllocCount();
+                }
+
+                handled = count;
+            }
+        });
+        dispatcher.start();
+
+        Debug.startAllocCounting();
+    }
+
+    /** @see junit.framework.TestCase#tearDown() */
+    @Override
+    protected void tearDown() throws Exception {
+        Debug.stopAllocCounting();
+        dispatcher.shutdown();
+        dispatcher.join();
+
+        super.tearDown();
+    }
+
+    public void testReceiveAndDispatchDoNotAllocate() {
+        DatagramBufferPool bufferPool = new DatagramBufferPool(4, 256);
+        Packet receivedPacket = new Packet(0, null, 0, 0);
+        PlayerStateDecoder decoder = new PlayerStateDecoder();
+
+        int receiverAllocations = 0;
+        for(int index = 0; index < WARMUP + MEASURED; index++) {
+            if(index == WARMUP) {
+                Debug.resetThreadAllocCount();
+            }
+
+            // the same steps as the network handler takes for a player state datagram
+            ByteBuffer buffer = bufferPool.acquire();
+            buffer.put(datagrams[index % datagrams.length]);
+            buffer.flip();
+
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + buffer.position();
+            receivedPacket.reset(array[offset] & 0xFF, array, offset + 2, buffer.remaining() - 2);
+
+            assertTrue(decoder.decode(receivedPacket));
+            assertTrue(dispatcher.dispatch(receivedPacket, index));
+
+            bufferPool.release(buffer);
+
+            // a state arrives every few hundred milliseconds, the queue never grows
+            while(handled <= index) {
+                Thread.yield();
+            }
+
+            if(index == WARMUP + MEASURED - 1) {
+                receiverAllocations = Debug.getThreadAllocCount();
+            }
+        }
+
+        assertEquals("allocations on the receiving thread", 0, receiverAllocations);
+        assertEquals("allocations on the dispatcher thread", 0, dispatcherAllocations);
+    }
+
+}
@@ -0,0 +1,133 @@
+package hu.rycus.rpiomxremote.ui;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of the frame coalescer with frames fired by the test:
+ * only the latest update is applied once per frame, replaced ones are counted
+ * as dropped and nothing is scheduled while the target is not visible.
+ */
+public class FrameCoalescerTest extends TestCase {
+
+    /** The updates applied to the target in order. */
+    private final List<String> applied = new ArrayList<String>();
+
+    /** The ticker standing in for the display frames. */
+    private ManualTicker ticker;
+    /** The coalescer under test. */
+    private FrameCoalescer<String> coalescer;
+
+    /** @see junit.framework.TestCase#setUp() */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        ticker = new ManualTicker();
+        coalescer = new FrameCoalescer<String>(new FrameCoalescer.Target<String>() {
+            @Override
+            public void apply(String update) {
+                applied.add(update);
+            }
+        }, ticker);
+    }
+
+    public void testLatestUpdateIsAppliedOncePerFrame() {
+        coalescer.setVisible(true);
+
+        coalescer.submit("a");
+        coalescer.submit("b");
+        coalescer.submit("c");
+        assertEquals(1, ticker.schedules);
+
+        ticker.frame();
+        ticker.frame();
+
+        assertEquals(1, applied.size());
+        assertEquals("c", applied.get(0));
+        assertEquals(1L, coalescer.getAppliedCount());
+        assertEquals(2L, coalescer.getDroppedCount());
+    }
+
+    public void testUpdatesOfConsecutiveFramesAreApplied() {
+        coalescer.setVisible(true);
+
+        coalescer.submit("a");
+        ticker.frame();
+        coalescer.submit("b");
+        ticker.frame();
+
+        assertEquals(2, ticker.schedules);
+        assertEquals(2, applied.size());
+        assertEquals("b", applied.get(1));
+        assertEquals(0L, coalescer.getDroppedCount());
+    }
+
+    public void testHiddenTargetKeepsOnlyTheLatestUpdate() {
+        coalescer.submit("a");
+        coalescer.submit("b");
+
+        assertEquals(0, ticker.schedules);
+        assertFalse(ticker.frame());
+
+        coalescer.setVisible(true);
+        assertEquals(1, ticker.schedules);
+        assertTrue(ticker.frame());
+
+        assertEquals(1, applied.size());
+        assertEquals("b", applied.get(0));
+        assertEquals(1L, coalescer.getDroppedCount());
+    }
+
+    public void testHidingCancelsTheScheduledFrame() {
+        coalescer.setVisible(true);
+        coalescer.submit("a");
+
+        coalescer.setVisible(false);
+        assertEquals(1, ticker.cancels);
+        assertFalse(ticker.frame());
+        assertTrue(applied.isEmpty());
+
+        coalescer.setVisible(true);
+        assertTrue(ticker.frame());
+        assertEquals("a", applied.get(0));
+    }
+
+    /** Ticker firing the scheduled frame when the test asks for it. */
+    private class ManualTicker implements FrameCoalescer.FrameTicker {
+
+        /** True if a frame is scheduled. */
+        boolean scheduled = false;
+        /** The number of scheduled frames. */
+        int schedules = 0;
+        /** The number of cancelled frames. */
+        int cancels = 0;
+
+        /** @see FrameCoalescer.FrameTicker#schedule() */
+        @Override
+        public void schedule() {
+            scheduled = true;
+            schedules++;
+        }
+
+        /** @see FrameCoalescer.FrameTicker#cancel() */
+        @Override
+        public void cancel() {
+            scheduled = false;
+            cancels++;
+        }
+
+        /** Fires the scheduled frame; returns false if none was scheduled. */
+        boolean frame() {
+            if(!scheduled) return false;
+
+            scheduled = false;
+            coalescer.onFrame();
+            return true;
+        }
+
+    }
+
+}
@@ -1,13 +1,9 @@
 package hu.rycus.rpiomxremote;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.ActionBarActivity;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -16,6 +12,8 @@ import android.widget.Toast;
 import hu.rycus.rpiomxremote.blocks.FileList;
 import hu.rycus.rpiomxremote.blocks.Setting;
 import hu.rycus.rpiomxremote.manager.PlayerState;
+import hu.rycus.rpiomxremote.manager.RemoteListener;
+import hu.rycus.rpiomxremote.manager.RemoteListenerAdapter;
 import hu.rycus.rpiomxremote.ui.AboutFragment;
 import hu.rycus.rpiomxremote.ui.FileListFragment;
 import hu.rycus.rpiomxremote.ui.PlayerFragment;
@@ -38,8 +36,23 @@ import hu.rycus.rpiomxremote.util.Intents;
  */
 public class MainActivity extends ActionBarActivity {
 
+    /** True while the activity is between onResume and onPause. */
+    private boolean resumed = false;
+
     /** Helper object to bind/unbind the remote service. */
-    private final RemoteServiceCreator rsc = new RemoteServiceCreator();
+    private final RemoteServiceCreator rsc = new RemoteServiceCreator() {
+
+        /**
+         * @see hu.rycus.rpiomxremote.RemoteServiceCreator
+         *      #onServiceInstanceReceived(hu.rycus.rpiomxremote.RemoteService)
+         */
+        @Override
+        protected void onServiceInstanceReceived(RemoteService service) {
+            if(resumed) {
+                service.addListener(remoteListener);
+            }
+        }
+    };
 
     /** @see android.app.Activity#onCreate(android.os.Bundle) */
     @Override
@@ -59,8 +72,10 @@ public class MainActivity extends ActionBarActivity {
     protected void onResume() {
         super.onResume();
 
-        IntentFilter callbackFilter = new IntentFilter(Intents.ACTION_CALLBACK);
-        LocalBroadcastManager.getInstance(this).registerReceiver(callbackReceiver, callbackFilter);
+        resumed = true;
+        if(rsc.isServiceBound()) {
+            rsc.getService().addListener(remoteListener);
+        }
     }
 
     /** @see android.app.Activity#onPause() */
@@ -68,7 +83,10 @@ public class MainActivity extends ActionBarActivity {
     protected void onPause() {
         super.onPause();
 
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(callbackReceiver);
+        resumed = false;
+        if(rsc.isServiceBound()) {
+            rsc.getService().removeListener(remoteListener);
+        }
     }
 
     /** @see android.app.Activity#onStart() */
@@ -178,67 +196,61 @@ public class MainActivity extends ActionBarActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    /** Broadcast receiver to receive callbacks from the remote service. */
-    private final BroadcastReceiver callbackReceiver = new BroadcastReceiver() {
+    /** Listener of the remote service events. */
+    private final RemoteListener remoteListener = new RemoteListenerAdapter() {
 
-        /**
-         * @see android.content.BroadcastReceiver
-         *      #onReceive(android.content.Context, android.content.Intent)
-         */
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onError(String) */
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if( Intents.ACTION_CALLBACK.equals(intent.getAction()) ) {
-                // errors
-                if( intent.hasExtra(Intents.EXTRA_ERROR) ) {
-                    String error = intent.getStringExtra(Intents.EXTRA_ERROR);
-                    Toast.makeText(
-                            MainActivity.this,
-                            getResources().getString(R.string.error_general, error),
-                            Toast.LENGTH_SHORT).show();
-                }
-                // file list
-                else if( intent.hasExtra(Intents.EXTRA_FILE_LIST) ) {
-                    FileList files = intent.getParcelableExtra(Intents.EXTRA_FILE_LIST);
-                    if(files != null) {
-                        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
-                        if(fragment != null && fragment instanceof FileListFragment) {
-                            ((FileListFragment) fragment).setFiles(files);
-                        } else {
-                            fragment = new FileListFragment();
-                            Bundle bundle = new Bundle();
-                            bundle.putParcelable(Intents.EXTRA_FILE_LIST, files);
-                            fragment.setArguments(bundle);
-                            changeFragment(fragment, FragmentTransaction.TRANSIT_FRAGMENT_OPEN, true);
-                        }
-                    } else {
-                        Toast.makeText(
-                                MainActivity.this,
-                                getResources().getText(R.string.error_list_files),
-                                Toast.LENGTH_SHORT).show();
-                    }
-                }
-                // player started
-                else if( intent.hasExtra(Intents.EXTRA_PLAYER_REPORT) ) {
-                    String type = intent.getStringExtra(Intents.EXTRA_PLAYER_REPORT);
-                    if( Intents.EXTRA_PLAYER_REPORT_INIT.equals(type) ) {
-                        startPlayerActivity();
-                    }
-                }
-                // connection state changed
-                else if( intent.hasExtra(Intents.EXTRA_CONNECTION_STATE) ) {
-                    boolean connected = intent.getBooleanExtra(Intents.EXTRA_CONNECTION_STATE, false);
-                    Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
-                    if(fragment != null && fragment instanceof StatusFragment) {
-                        ((StatusFragment) fragment).setConnected(connected);
-                    }
-                }
-                // settings list ready
-                else if( intent.hasExtra(Intents.EXTRA_SETTINGS_LIST) ) {
-                    Setting[] settings = (Setting[]) intent.getParcelableArrayExtra(Intents.EXTRA_SETTINGS_LIST);
-                    displaySettingsFragment(settings);
+        public void onError(String error) {
+            Toast.makeText(
+                    MainActivity.this,
+                    getResources().getString(R.string.error_general, error),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onFileList(hu.rycus.rpiomxremote.blocks.FileList) */
+        @Override
+        public void onFileList(FileList files) {
+            if(files != null) {
+                Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
+                if(fragment != null && fragment instanceof FileListFragment) {
+                    ((FileListFragment) fragment).setFiles(files);
+                } else {
+                    fragment = new FileListFragment();
+                    Bundle bundle = new Bundle();
+                    bundle.putParcelable(Intents.EXTRA_FILE_LIST, files);
+                    fragment.setArguments(bundle);
+                    changeFragment(fragment, FragmentTransaction.TRANSIT_FRAGMENT_OPEN, true);
                 }
+            } else {
+                Toast.makeText(
+                        MainActivity.this,
+                        getResources().getText(R.string.error_list_files),
+                        Toast.LENGTH_SHORT).show();
             }
         }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onPlayerStarted(PlayerState) */
+        @Override
+        public void onPlayerStarted(PlayerState state) {
+            startPlayerActivity();
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onConnectionChanged(boolean) */
+        @Override
+        public void onConnectionChanged(boolean connected) {
+            Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
+            if(fragment != null && fragment instanceof StatusFragment) {
+                ((StatusFragment) fragment).setConnected(connected);
+            }
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onSettingsList(hu.rycus.rpiomxremote.blocks.Setting[]) */
+        @Override
+        public void onSettingsList(Setting[] settings) {
+            displaySettingsFragment(settings);
+        }
+
     };
 
 }
@@ -1,20 +1,16 @@
 package hu.rycus.rpiomxremote;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
-import android.support.v4.content.LocalBroadcastManager;
 import android.view.Window;
 import android.widget.Toast;
 
 import hu.rycus.rpiomxremote.manager.PlayerState;
+import hu.rycus.rpiomxremote.manager.RemoteListener;
+import hu.rycus.rpiomxremote.manager.RemoteListenerAdapter;
 import hu.rycus.rpiomxremote.ui.PlayerFragment;
-import hu.rycus.rpiomxremote.util.Intents;
 
 /**
  * Activity displaying the player interface.
@@ -26,8 +22,23 @@ import hu.rycus.rpiomxremote.util.Intents;
  */
 public class PlayerActivity extends FragmentActivity {
 
+    /** True while the activity is between onResume and onPause. */
+    private boolean resumed = false;
+
     /** Helper object ot bind/unbind the remote service. */
-    private final RemoteServiceCreator rsc = new RemoteServiceCreator();
+    private final RemoteServiceCreator rsc = new RemoteServiceCreator() {
+
+        /**
+         * @see hu.rycus.rpiomxremote.RemoteServiceCreator
+         *      #onServiceInstanceReceived(hu.rycus.rpiomxremote.RemoteService)
+         */
+        @Override
+        protected void onServiceInstanceReceived(RemoteService service) {
+            if(resumed) {
+                service.addListener(remoteListener);
+            }
+        }
+    };
 
     /** @see android.app.Activity#onCreate(android.os.Bundle) */
     @Override
@@ -51,8 +62,10 @@ public class PlayerActivity extends FragmentActivity {
     protected void onResume() {
         super.onResume();
 
-        IntentFilter filter = new IntentFilter(Intents.ACTION_CALLBACK);
-        LocalBroadcastManager.getInstance(this).registerReceiver(callbackReceiver, filter);
+        resumed = true;
+        if(rsc.isServiceBound()) {
+            rsc.getService().addListener(remoteListener);
+        }
     }
 
     /** @see android.app.Activity#onPause() */
@@ -60,7 +73,10 @@ public class PlayerActivity extends FragmentActivity {
     protected void onPause() {
         super.onPause();
 
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(callbackReceiver);
+        resumed = false;
+        if(rsc.isServiceBound()) {
+            rsc.getService().removeListener(remoteListener);
+        }
     }
 
     /** @see android.app.Activity#onStart() */
@@ -79,75 +95,67 @@ public class PlayerActivity extends FragmentActivity {
         rsc.unbind(this);
     }
 
-    /** Broadcast receiver to receive callbacks from the remote service. */
-    private final BroadcastReceiver callbackReceiver = new BroadcastReceiver() {
+    /** Listener of the remote service events. */
+    private final RemoteListener remoteListener = new RemoteListenerAdapter() {
 
-        /**
-         * @see android.content.BroadcastReceiver
-         *      #onReceive(android.content.Context, android.content.Intent)
-         */
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onError(String) */
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if( Intents.ACTION_CALLBACK.equals(intent.getAction()) ) {
-                // errors
-                if( intent.hasExtra(Intents.EXTRA_ERROR) ) {
-                    String error = intent.getStringExtra(Intents.EXTRA_ERROR);
-                    Toast.makeText(
-                            PlayerActivity.this,
-                            getResources().getString(R.string.error_general, error),
-                            Toast.LENGTH_SHORT).show();
-                }
-                // player report
-                else if( intent.hasExtra(Intents.EXTRA_PLAYER_REPORT) ) {
-                    String type = intent.getStringExtra(Intents.EXTRA_PLAYER_REPORT);
-                    // state report
-                    if( Intents.EXTRA_PLAYER_REPORT_STATE.equals(type) ) {
-                        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
-                        if(fragment != null && fragment instanceof PlayerFragment) {
-                            PlayerState state = rsc.isServiceBound() ? rsc.getService().getPlayerState() : null;
-                            if(state != null) {
-                                long position  = state.getPosition();
-                                long volume    = state.getVolume();
-                                boolean paused = state.isPaused();
-
-                                ((PlayerFragment) fragment).setState(position, volume, paused);
-                            }
-                        }
-                    }
-                    // player information arrived
-                    else if( Intents.EXTRA_PLAYER_REPORT_INFO.equals(type) ||
-                             Intents.EXTRA_PLAYER_REPORT_EXTRA.equals(type) ) {
-                        PlayerState state = rsc.isServiceBound() ? rsc.getService().getPlayerState() : null;
-                        if(state == null) return;
-
-                        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
-                        if(fragment != null && fragment instanceof PlayerFragment) {
-                            ((PlayerFragment) fragment).processPlayerState(state);
-                        }
-                    }
-                    // remote player exited
-                    else if( Intents.EXTRA_PLAYER_REPORT_EXIT.equals(type) ) {
-                        Toast.makeText(
-                                PlayerActivity.this,
-                                getResources().getText(R.string.pl_finished),
-                                Toast.LENGTH_LONG).show();
-
-                        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
-                        if(fragment != null && fragment instanceof PlayerFragment) {
-                            ((PlayerFragment) fragment).onPlaybackFinished();
-                        }
-
-                        Handler handler = new Handler();
-                        handler.postDelayed(new Runnable() {
-                            @Override
-                            public void run() {
-                                PlayerActivity.this.finish();
-                            }
-                        }, 2500);
-                    }
-                }
+        public void onError(String error) {
+            Toast.makeText(
+                    PlayerActivity.this,
+                    getResources().getString(R.string.error_general, error),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onPlayerStateChanged(PlayerState) */
+        @Override
+        public void onPlayerStateChanged(PlayerState state) {
+            onPlayerInfoChanged(state);
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onPlayerInfoChanged(PlayerState) */
+        @Override
+        public void onPlayerInfoChanged(PlayerState state) {
+            PlayerFragment fragment = getPlayerFragment();
+            if(fragment != null) {
+                fragment.processPlayerState(state);
+            }
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onPlayerExtrasChanged(PlayerState) */
+        @Override
+        public void onPlayerExtrasChanged(PlayerState state) {
+            onPlayerInfoChanged(state);
+        }
+
+        /** @see hu.rycus.rpiomxremote.manager.RemoteListener#onPlayerExited() */
+        @Override
+        public void onPlayerExited() {
+            Toast.makeText(
+                    PlayerActivity.this,
+                    getResources().getText(R.string.pl_finished),
+                    Toast.LENGTH_LONG).show();
+
+            PlayerFragment fragment = getPlayerFragment();
+            if(fragment != null) {
+                fragment.onPlaybackFinished();
             }
+
+            Handler handler = new Handler();
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    PlayerActivity.this.finish();
+                }
+            }, 2500);
         }
+
     };
 
+    /** Returns the displayed player fragment (or null if it is not displayed). */
+    private PlayerFragment getPlayerFragment() {
+        Fragment fragment = getSupportFragmentManager().findFragmentById(R.id.container);
+        return fragment instanceof PlayerFragment ? (PlayerFragment) fragment : null;
+    }
+
 }
@@ -10,11 +10,18 @@ import android.net.NetworkInfo;
 import android.os.Binder;
 import android.os.IBinder;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import hu.rycus.rpiomxremote.manager.LatencyStats;
+import hu.rycus.rpiomxremote.manager.PlaybackClock;
 import hu.rycus.rpiomxremote.manager.PlayerState;
+import hu.rycus.rpiomxremote.manager.RemoteEvents;
+import hu.rycus.rpiomxremote.manager.RemoteListener;
+import hu.rycus.rpiomxremote.manager.ServerInfo;
 import hu.rycus.rpiomxremote.manager.RemoteManager;
 import hu.rycus.rpiomxremote.util.Header;
 
@@ -40,6 +47,9 @@ public class RemoteService extends Service {
     /** The current remote manager object. */
     private RemoteManager remoteManager = null;
 
+    /** Delivers the events of the remote managers to the registered listeners. */
+    private final RemoteEvents events = new RemoteEvents();
+
     /** Starts the remote manager. */
     private void start() {
         startStopLock.lock();
@@ -74,6 +84,19 @@ public class RemoteService extends Service {
         }
     }
 
+    /** Returns the event delivery of the remote managers. */
+    public RemoteEvents getEvents() { return events; }
+
+    /** Registers a listener of the remote manager events (called on the main thread). */
+    public void addListener(RemoteListener listener) {
+        events.addListener(listener);
+    }
+
+    /** Unregisters a listener of the remote manager events. */
+    public void removeListener(RemoteListener listener) {
+        events.removeListener(listener);
+    }
+
     /** Returns true if the remote manager has a valid connection to the server. */
     public boolean isConnected() {
         return remoteManager != null ? remoteManager.isConnected() : false;
@@ -96,6 +119,38 @@ public class RemoteService extends Service {
         }
     }
 
+    /** Returns the latency histograms of the exchanges with the server (null if not started). */
+    public LatencyStats getLatencyStats() {
+        RemoteManager manager = remoteManager;
+        return manager != null ? manager.getLatencyStats() : null;
+    }
+
+    /** Returns the clock extrapolating the playback position of the remote player (null if not started). */
+    public PlaybackClock getPlaybackClock() {
+        RemoteManager manager = remoteManager;
+        return manager != null ? manager.getPlaybackClock() : null;
+    }
+
+    /** Returns the servers that answered a login request (the one in use is marked active). */
+    public List<ServerInfo> getServers() {
+        RemoteManager manager = remoteManager;
+        return manager != null ? manager.getServers() : Collections.<ServerInfo>emptyList();
+    }
+
+    /** Switches to another discovered server without restarting the remote manager. */
+    public void selectServer(ServerInfo server) {
+        if(remoteManager != null) {
+            remoteManager.selectServer(server);
+        }
+    }
+
+    /** Sends a discovery request to find every server on the network. */
+    public void discoverServers() {
+        if(remoteManager != null) {
+            remoteManager.discoverServers();
+        }
+    }
+
     /** Requests remote file list for the given path. */
     public void requestFileList(String path) {
         if(remoteManager != null) {
@@ -0,0 +1,51 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for retrying an operation.
+ * Every delay is drawn randomly from the upper half of an exponentially
+ * growing (and capped) window, so retries of several clients do not synchronize.
+ */
+class Backoff {
+
+    /** The delay window of the first retry in milliseconds. */
+    private final long base;
+    /** The maximum delay window in milliseconds. */
+    private final long max;
+
+    /** Random generator for the jitter. */
+    private final Random random = new Random();
+
+    /** The number of delays returned since the last reset. */
+    private int attempts = 0;
+
+    /**
+     * Package-private constructor.
+     * @param base The delay window of the first retry in milliseconds
+     * @param max  The maximum delay window in milliseconds
+     */
+    Backoff(long base, long max) {
+        this.base = base;
+        this.max = max;
+    }
+
+    /** Returns the delay in milliseconds before the next retry. */
+    synchronized long next() {
+        long window = max;
+        if(attempts < 30 && (base << attempts) < max) {
+            window = base << attempts;
+        }
+
+        attempts++;
+
+        long half = window / 2;
+        return half + (long) (random.nextDouble() * (window - half));
+    }
+
+    /** Starts over from the first delay (after a successful attempt). */
+    synchronized void reset() {
+        attempts = 0;
+    }
+
+}
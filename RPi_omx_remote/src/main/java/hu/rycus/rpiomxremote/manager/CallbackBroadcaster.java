@@ -0,0 +1,104 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.content.LocalBroadcastManager;
+
+import hu.rycus.rpiomxremote.blocks.FileList;
+import hu.rycus.rpiomxremote.blocks.Setting;
+import hu.rycus.rpiomxremote.util.Intents;
+
+/**
+ * Compatibility listener re-sending the remote manager events as the
+ * {@link Intents#ACTION_CALLBACK} local broadcasts used before the listener API,
+ * for receivers that were not migrated yet.
+ * It is not registered by default, as every event creates a new Intent.
+ */
+public class CallbackBroadcaster implements RemoteListener {
+
+    /** The context to send the broadcasts from. */
+    private final Context context;
+
+    /**
+     * Constructor with the context to send the broadcasts from.
+     * @param context The context to send the broadcasts from
+     */
+    public CallbackBroadcaster(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /** @see RemoteListener#onConnectionChanged(boolean) */
+    @Override
+    public void onConnectionChanged(boolean connected) {
+        Intent intent = new Intent(Intents.ACTION_CALLBACK);
+        intent.putExtra(Intents.EXTRA_CONNECTION_STATE, connected);
+        send(intent);
+    }
+
+    /** @see RemoteListener#onPlayerStarted(PlayerState) */
+    @Override
+    public void onPlayerStarted(PlayerState state) {
+        sendPlayerReport(Intents.EXTRA_PLAYER_REPORT_INIT);
+    }
+
+    /** @see RemoteListener#onPlayerStateChanged(PlayerState) */
+    @Override
+    public void onPlayerStateChanged(PlayerState state) {
+        sendPlayerReport(Intents.EXTRA_PLAYER_REPORT_STATE);
+    }
+
+    /** @see RemoteListener#onPlayerInfoChanged(PlayerState) */
+    @Override
+    public void onPlayerInfoChanged(PlayerState state) {
+        sendPlayerReport(Intents.EXTRA_PLAYER_REPORT_INFO);
+    }
+
+    /** @see RemoteListener#onPlayerExtrasChanged(PlayerState) */
+    @Override
+    public void onPlayerExtrasChanged(PlayerState state) {
+        sendPlayerReport(Intents.EXTRA_PLAYER_REPORT_EXTRA);
+    }
+
+    /** @see RemoteListener#onPlayerExited() */
+    @Override
+    public void onPlayerExited() {
+        sendPlayerReport(Intents.EXTRA_PLAYER_REPORT_EXIT);
+    }
+
+    /** @see RemoteListener#onFileList(hu.rycus.rpiomxremote.blocks.FileList) */
+    @Override
+    public void onFileList(FileList files) {
+        Intent intent = new Intent(Intents.ACTION_CALLBACK);
+        intent.putExtra(Intents.EXTRA_FILE_LIST, files);
+        send(intent);
+    }
+
+    /** @see RemoteListener#onSettingsList(hu.rycus.rpiomxremote.blocks.Setting[]) */
+    @Override
+    public void onSettingsList(Setting[] settings) {
+        Intent intent = new Intent(Intents.ACTION_CALLBACK);
+        intent.putExtra(Intents.EXTRA_SETTINGS_LIST, settings);
+        send(intent);
+    }
+
+    /** @see RemoteListener#onError(String) */
+    @Override
+    public void onError(String error) {
+        Intent intent = new Intent(Intents.ACTION_CALLBACK);
+        intent.putExtra(Intents.EXTRA_ERROR, error);
+        send(intent);
+    }
+
+    /** Sends a player report broadcast of the given type. */
+    private void sendPlayerReport(String type) {
+        Intent intent = new Intent(Intents.ACTION_CALLBACK);
+        intent.putExtra(Intents.EXTRA_PLAYER_REPORT, type);
+        send(intent);
+    }
+
+    /** Sends the broadcast. */
+    private void send(Intent intent) {
+        LocalBroadcastManager.getInstance(context).sendBroadcast(intent);
+    }
+
+}
@@ -0,0 +1,79 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+
+/**
+ * Caps the size of the outgoing datagrams at the MTU of the interface
+ * the server is reached on (minus the IP and UDP headers) and the buffer size
+ * of the server, so datagrams are not fragmented by the sending host.
+ * Smaller MTUs further along the path are not discovered.
+ */
+class ChunkSizer {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|CHS";
+
+    /** The size of the IPv4 and UDP headers in bytes. */
+    private static final int IP_UDP_OVERHEAD = 28;
+    /** The smallest datagram every IPv4 host has to accept (576) minus the headers. */
+    private static final int MIN_SIZE = 576 - IP_UDP_OVERHEAD;
+    /** The MTU assumed when it can not be queried. */
+    private static final int DEFAULT_MTU = 1500;
+
+    /** The largest size of the outgoing datagrams. */
+    private int size = DEFAULT_MTU - IP_UDP_OVERHEAD;
+
+    /**
+     * Sets the size for a new server.
+     * @param server     The address of the server
+     * @param bufferSize The buffer size advertised by the server
+     */
+    synchronized void reset(InetSocketAddress server, int bufferSize) {
+        int mtu = queryMtu(server);
+        size = Math.max(MIN_SIZE, Math.min(bufferSize, mtu - IP_UDP_OVERHEAD));
+
+        Log.d(LOG_TAG, "Datagram size: " + size + " (MTU: " + mtu + ", server buffer: " + bufferSize + ")");
+    }
+
+    /** Returns the largest size of the outgoing datagrams in bytes. */
+    synchronized int getSize() { return size; }
+
+    /** Returns the MTU of the interface the server is reached on. */
+    private static int queryMtu(InetSocketAddress server) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            try {
+                return queryInterfaceMtu(server);
+            } catch(Exception ex) {
+                Log.d(LOG_TAG, "Failed to query the MTU", ex);
+            }
+        }
+
+        return DEFAULT_MTU;
+    }
+
+    /** Queries the MTU of the interface with the local address that routes to the server. */
+    private static int queryInterfaceMtu(InetSocketAddress server) throws Exception {
+        // connecting a datagram socket only selects the route, it does not send anything
+        DatagramSocket socket = new DatagramSocket();
+        try {
+            socket.connect(server);
+            InetAddress local = socket.getLocalAddress();
+
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(local);
+            if(networkInterface != null && networkInterface.getMTU() > 0) {
+                return networkInterface.getMTU();
+            }
+        } finally {
+            socket.close();
+        }
+
+        return DEFAULT_MTU;
+    }
+
+}
@@ -0,0 +1,120 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Blocking queue of commands with separate priority lanes.
+ * Transport controls go to the real-time lane so they never wait
+ * behind file listings or settings traffic queued before them;
+ * commands in the same lane keep their order.
+ * Seek and volume commands carry absolute targets so a pending one
+ * is replaced by a newer command with the same header instead of queueing both.
+ */
+class CommandQueue {
+
+    /** The priority lanes in order of precedence. */
+    enum Lane {
+        /** Player transport controls and session commands, sent immediately. */
+        REALTIME,
+        /** Browsing and playback requests the user is waiting for. */
+        INTERACTIVE,
+        /** Everything else (settings). */
+        BACKGROUND
+    }
+
+    /** The queued commands by lane (indexed by the lane's ordinal). */
+    private final LinkedList<Command>[] lanes;
+
+    /** The number of commands offered to the queue. */
+    private long offeredCount = 0L;
+    /** The number of commands merged into a pending one (and not sent). */
+    private long mergedCount = 0L;
+
+    /** Package-private constructor. */
+    @SuppressWarnings("unchecked")
+    CommandQueue() {
+        Lane[] values = Lane.values();
+        lanes = new LinkedList[values.length];
+        for(int idx = 0; idx < values.length; idx++) {
+            lanes[idx] = new LinkedList<Command>();
+        }
+    }
+
+    /** Returns the lane commands with the given header are queued in. */
+    static Lane laneOf(int header) {
+        switch (header) {
+            case Header.MSG_A_EXIT:
+            case Header.MSG_A_STOP_VIDEO:
+            case Header.MSG_A_SEEK_TO:
+            case Header.MSG_A_SET_VOLUME:
+            case Header.MSG_A_PAUSE:
+            case Header.MSG_A_SPEED_INC:
+            case Header.MSG_A_SPEED_DEC:
+            case Header.MSG_A_SUB_DELAY_INC:
+            case Header.MSG_A_SUB_DELAY_DEC:
+            case Header.MSG_A_SUB_TOGGLE:
+                return Lane.REALTIME;
+            case Header.MSG_A_LIST_FILES:
+            case Header.MSG_A_START_VIDEO:
+                return Lane.INTERACTIVE;
+            default:
+                return Lane.BACKGROUND;
+        }
+    }
+
+    /** Returns true if a pending command with the given header is superseded by a newer one. */
+    static boolean isConflating(int header) {
+        return header == Header.MSG_A_SEEK_TO || header == Header.MSG_A_SET_VOLUME;
+    }
+
+    /**
+     * Adds a command to the end of its lane or replaces
+     * the pending command with the same header if it conflates.
+     */
+    synchronized void offer(Command command) {
+        offeredCount++;
+
+        int header = command.getHeader();
+        LinkedList<Command> lane = lanes[laneOf(header).ordinal()];
+
+        if(isConflating(header)) {
+            for(ListIterator<Command> iterator = lane.listIterator(); iterator.hasNext(); ) {
+                if(iterator.next().getHeader() == header) {
+                    // last writer wins, the pending one keeps its place in the lane
+                    iterator.set(command);
+                    mergedCount++;
+                    return;
+                }
+            }
+        }
+
+        lane.addLast(command);
+        notifyAll();
+    }
+
+    /**
+     * Removes and returns the first command of the highest priority lane that is not empty,
+     * waiting for one if all lanes are empty.
+     */
+    synchronized Command take() throws InterruptedException {
+        while(true) {
+            for(LinkedList<Command> lane : lanes) {
+                if(!lane.isEmpty()) {
+                    return lane.removeFirst();
+                }
+            }
+
+            wait();
+        }
+    }
+
+    /** Returns the number of commands offered to the queue. */
+    synchronized long getOfferedCount() { return offeredCount; }
+
+    /** Returns the number of commands merged into a pending one (and not sent). */
+    synchronized long getMergedCount() { return mergedCount; }
+
+}
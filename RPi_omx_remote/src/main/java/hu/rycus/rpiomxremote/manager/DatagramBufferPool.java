@@ -0,0 +1,70 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small fixed-size pool of datagram buffers used by the network handler
+ * to receive packets without allocating.
+ */
+class DatagramBufferPool {
+
+    /** The pooled buffers that are currently available. */
+    private final ByteBuffer[] available;
+    /** The number of available buffers in the pool. */
+    private int count;
+    /** The size of the buffers handed out by the pool. */
+    private int bufferSize;
+
+    /**
+     * Package-private constructor.
+     * @param capacity   The number of buffers kept in the pool
+     * @param bufferSize The initial size of the buffers
+     */
+    DatagramBufferPool(int capacity, int bufferSize) {
+        this.available  = new ByteBuffer[capacity];
+        this.bufferSize = bufferSize;
+
+        for(int idx = 0; idx < capacity; idx++) {
+            available[idx] = ByteBuffer.allocate(bufferSize);
+        }
+        this.count = capacity;
+    }
+
+    /**
+     * Sets the size of the buffers handed out by the pool.
+     * Buffers with a different size get reallocated when they are acquired next time.
+     */
+    synchronized void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool ready to receive into,
+     * or creates a new one if the pool is exhausted.
+     * The buffer is always backed by an accessible array.
+     */
+    synchronized ByteBuffer acquire() {
+        ByteBuffer buffer;
+        if(count > 0) {
+            buffer = available[--count];
+            available[count] = null;
+        } else {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        if(buffer.capacity() != bufferSize) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Returns a buffer to the pool (dropping it if the pool is already full). */
+    synchronized void release(ByteBuffer buffer) {
+        if(buffer != null && count < available.length) {
+            available[count++] = buffer;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Persistent storage of the last working server endpoint
+ * (unicast address, port and session buffer size) with the Wi-Fi network it was found on,
+ * so the next start can log in directly instead of waiting for multicast discovery.
+ */
+class EndpointStore {
+
+    /** The name of the preferences file. */
+    private static final String PREFERENCES = "endpoint";
+
+    /** Preference key of the Wi-Fi network name. */
+    private static final String KEY_SSID        = "ssid";
+    /** Preference key of the host address. */
+    private static final String KEY_HOST        = "host";
+    /** Preference key of the port. */
+    private static final String KEY_PORT        = "port";
+    /** Preference key of the session buffer size. */
+    private static final String KEY_BUFFER_SIZE = "buffer_size";
+
+    /** The context used to access the preferences and the Wi-Fi state. */
+    private final Context context;
+
+    /**
+     * Package-private constructor.
+     * @param context The context used to access the preferences and the Wi-Fi state
+     */
+    EndpointStore(Context context) {
+        this.context = context;
+    }
+
+    /** Returns the name of the current Wi-Fi network or null if it is not known. */
+    String getCurrentSsid() {
+        try {
+            WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+            WifiInfo info = wifiManager != null ? wifiManager.getConnectionInfo() : null;
+            String ssid = info != null ? info.getSSID() : null;
+
+            if(ssid != null && ssid.length() > 1 && ssid.startsWith("\"") && ssid.endsWith("\"")) {
+                // newer platforms return the name in quotes
+                ssid = ssid.substring(1, ssid.length() - 1);
+            }
+
+            return ssid != null && ssid.length() > 0 ? ssid : null;
+        } catch(SecurityException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the endpoint stored for the given Wi-Fi network.
+     * @param ssid The name of the current Wi-Fi network
+     * @return The stored endpoint or null if there is none for this network
+     */
+    Endpoint load(String ssid) {
+        if(ssid == null) return null;
+
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if(!ssid.equals(preferences.getString(KEY_SSID, null))) {
+            return null;
+        }
+
+        String host = preferences.getString(KEY_HOST, null);
+        int port = preferences.getInt(KEY_PORT, 0);
+        int bufferSize = preferences.getInt(KEY_BUFFER_SIZE, 0);
+
+        if(host == null || port <= 0 || bufferSize <= 0) {
+            return null;
+        }
+
+        return new Endpoint(new InetSocketAddress(host, port), bufferSize);
+    }
+
+    /**
+     * Stores the working endpoint for the given Wi-Fi network (replacing the previous one).
+     * @param ssid       The name of the current Wi-Fi network
+     * @param address    The unicast address of the server
+     * @param bufferSize The session buffer size
+     */
+    void save(String ssid, InetSocketAddress address, int bufferSize) {
+        if(ssid == null || address.getAddress() == null) return;
+
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        preferences.edit()
+                .putString(KEY_SSID, ssid)
+                .putString(KEY_HOST, address.getAddress().getHostAddress())
+                .putInt(KEY_PORT, address.getPort())
+                .putInt(KEY_BUFFER_SIZE, bufferSize)
+                .commit();
+    }
+
+    /** A stored server endpoint. */
+    static class Endpoint {
+
+        /** The unicast address of the server. */
+        private final InetSocketAddress address;
+        /** The session buffer size. */
+        private final int bufferSize;
+
+        /** Constructor with the endpoint parameters. */
+        Endpoint(InetSocketAddress address, int bufferSize) {
+            this.address = address;
+            this.bufferSize = bufferSize;
+        }
+
+        /** Returns the unicast address of the server. */
+        InetSocketAddress getAddress() { return address; }
+
+        /** Returns the session buffer size. */
+        int getBufferSize() { return bufferSize; }
+
+    }
+
+}
@@ -0,0 +1,108 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Phi accrual failure detector based on the arrival times of received datagrams.
+ * <p>
+ *     Instead of deciding on a single timeout it keeps a sliding window of the gaps
+ *     between arrivals and returns a suspicion level (phi) that grows with the time
+ *     since the last arrival relative to the gaps seen before: phi is the negative
+ *     decimal logarithm of the probability that a datagram still arrives this late,
+ *     so a threshold of 8 means a false suspicion in about one of 10<sup>8</sup> cases.
+ *     Irregular arrivals on a flaky network widen the distribution
+ *     and make the detector more tolerant by themselves.
+ * </p>
+ */
+class FailureDetector {
+
+    /** The default suspicion level above the connection is considered lost. */
+    static final double DEFAULT_THRESHOLD = 8.0;
+
+    /** The number of gaps kept in the window. */
+    private static final int WINDOW_SIZE = 100;
+    /** The assumed gap in milliseconds before anything was measured. */
+    private static final long FIRST_GAP_ESTIMATE = 1000L;
+    /** The lower bound of the standard deviation in milliseconds (to tolerate very regular arrivals). */
+    private static final double MIN_STD_DEVIATION = 200.0;
+    /** Time in milliseconds added to the mean gap as an acceptable pause. */
+    private static final long ACCEPTABLE_PAUSE = 500L;
+
+    /** Ring buffer of the measured gaps in milliseconds. */
+    private final long[] gaps = new long[WINDOW_SIZE];
+    /** The index of the next gap to write. */
+    private int next = 0;
+    /** The number of gaps in the window. */
+    private int count = 0;
+    /** The sum of the gaps in the window. */
+    private double sum = 0.0;
+    /** The sum of the squares of the gaps in the window. */
+    private double squareSum = 0.0;
+
+    /** The time of the last arrival (0 if nothing arrived yet). */
+    private long lastArrival = 0L;
+
+    /** Registers an arrival at the given time (in elapsed realtime milliseconds). */
+    synchronized void heartbeat(long now) {
+        if(lastArrival > 0L) {
+            long gap = Math.max(0L, now - lastArrival);
+
+            if(count == WINDOW_SIZE) {
+                long removed = gaps[next];
+                sum -= removed;
+                squareSum -= (double) removed * removed;
+            } else {
+                count++;
+            }
+
+            gaps[next] = gap;
+            next = (next + 1) % WINDOW_SIZE;
+
+            sum += gap;
+            squareSum += (double) gap * gap;
+        }
+
+        lastArrival = now;
+    }
+
+    /**
+     * Returns the suspicion level at the given time (in elapsed realtime milliseconds);
+     * 0 if nothing arrived yet.
+     */
+    synchronized double phi(long now) {
+        if(lastArrival == 0L) return 0.0;
+
+        double mean;
+        double deviation;
+
+        if(count == 0) {
+            mean = FIRST_GAP_ESTIMATE;
+            deviation = FIRST_GAP_ESTIMATE / 4.0;
+        } else {
+            mean = sum / count;
+            deviation = Math.sqrt(Math.max(0.0, squareSum / count - mean * mean));
+        }
+
+        mean += ACCEPTABLE_PAUSE;
+        deviation = Math.max(MIN_STD_DEVIATION, deviation);
+
+        double elapsed = now - lastArrival;
+
+        // logistic approximation of the cumulative normal distribution
+        double y = (elapsed - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if(elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        } else {
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
+    /** Drops the measured gaps (the next arrival starts a new window). */
+    synchronized void reset() {
+        next = 0;
+        count = 0;
+        sum = 0.0;
+        squareSum = 0.0;
+        lastArrival = 0L;
+    }
+
+}
@@ -0,0 +1,252 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Timer deciding when keep-alive probes are needed and when the session is considered lost.
+ * <p>
+ *     Received traffic proves that the session is alive so no probe is sent while
+ *     packets keep arriving; probing starts only after a silence that leaves enough
+ *     time within the latency budget for a few probes to be answered.
+ *     The round-trip time is measured on the keep-alive echoes of the server
+ *     (smoothed like TCP does) and the loss rate of the probes decides how many
+ *     attempts fit into the budget. An unanswered probe doubles the probe timeout
+ *     (up to its upper bound) until the next round-trip time is measured.
+ * </p>
+ * <p>
+ *     A probe is also sent as soon as the suspicion level of the failure detector starts
+ *     rising, and the session is considered lost only while a probe is left unanswered
+ *     for its timeout: when the suspicion level exceeds its threshold or, at the latest,
+ *     when the silence exceeds the latency budget.
+ * </p>
+ * <p>
+ *     The server expires sessions it does not hear from, so a keep-alive is still sent
+ *     when nothing was sent for a while even if received traffic proves liveness.
+ * </p>
+ */
+abstract class KeepaliveScheduler extends LoopTimer {
+
+    /** Time in milliseconds without sending anything after a keep-alive message is sent. */
+    static final long SEND_INTERVAL         = 7500L;
+    /** Time in milliseconds between keep-alive messages while not connected. */
+    static final long UNCONNECTED_INTERVAL  = 2500L;
+    /** The default time in milliseconds of silence after the session is considered lost. */
+    static final long DEFAULT_LATENCY_BUDGET = 6000L;
+
+    /** The lower bound of the probe timeout in milliseconds. */
+    static final long MIN_RTO   = 200L;
+    /** The upper bound of the probe timeout in milliseconds. */
+    static final long MAX_RTO   = 3000L;
+    /** The probe timeout in milliseconds before the first measurement. */
+    static final long INITIAL_RTO = 1000L;
+
+    /** The minimum time in milliseconds of silence before probing. */
+    private static final long MIN_IDLE  = 500L;
+    /** The minimum number of probes that should fit into the latency budget. */
+    private static final int  MIN_PROBES = 2;
+    /** The maximum number of probes that should fit into the latency budget. */
+    private static final int  MAX_PROBES = 5;
+    /** Time in milliseconds between suspicion checks while the suspicion level is rising. */
+    private static final long SUSPICION_CHECK_INTERVAL = 250L;
+    /** The suspicion level above a probe is sent even if the silence is shorter than the idle interval. */
+    private static final double PROBE_SUSPICION = 1.0;
+
+    /** The failure detector fed with the arrival times. */
+    private final FailureDetector detector = new FailureDetector();
+    /** The suspicion level above the session is considered lost. */
+    private final double threshold = FailureDetector.DEFAULT_THRESHOLD;
+
+    /** Time in milliseconds of silence after the session is considered lost. */
+    private volatile long latencyBudget = DEFAULT_LATENCY_BUDGET;
+
+    /** The smoothed round-trip time in milliseconds (0 until measured). */
+    private volatile long srtt = 0L;
+    /** The round-trip time variation in milliseconds. */
+    private long rttvar = 0L;
+    /** The probe timeout in milliseconds. */
+    private volatile long rto = INITIAL_RTO;
+    /** The smoothed ratio of unanswered probes (0..1). */
+    private volatile double lossRate = 0.0;
+
+    /** The time the last datagram was received. */
+    private long lastReceiveTime;
+    /** The time the last datagram was sent (updated by the sending threads). */
+    private volatile long lastSendTime;
+    /** The time the outstanding probe was sent (0 if there is none). */
+    private long probeSentTime = 0L;
+    /** True if the outstanding probe is a repeated one (its echo can not be timed reliably). */
+    private boolean probeRepeated = false;
+    /** True while the session is considered alive. */
+    private volatile boolean alive = false;
+
+    /** Sends a keep-alive probe to the server. */
+    abstract void sendProbe();
+
+    /** Called when the silence exceeded the latency budget. */
+    abstract void sessionLost();
+
+    /** Resets the state and schedules the first probe. */
+    void start(long now) {
+        lastReceiveTime = now;
+        lastSendTime = now;
+        probeSentTime = 0L;
+        alive = false;
+        detector.reset();
+
+        schedule(now + UNCONNECTED_INTERVAL);
+    }
+
+    /**
+     * Registers a received datagram (this should run on the selector loop).
+     * @param now   The current time in elapsed realtime milliseconds
+     * @param probe True if this was the keep-alive echo of the server
+     */
+    void onReceive(long now, boolean probe) {
+        lastReceiveTime = now;
+        alive = true;
+        detector.heartbeat(now);
+
+        if(probeSentTime > 0L) {
+            if(probe && !probeRepeated) {
+                updateRtt(now - probeSentTime);
+            }
+
+            // any received datagram answers the outstanding probe
+            lossRate *= 0.875;
+            probeSentTime = 0L;
+        }
+    }
+
+    /** Registers a round-trip time measured on another exchange (on the selector loop). */
+    void onRttSample(long sample) {
+        updateRtt(sample);
+    }
+
+    /** Registers a sent datagram. */
+    void onSend(long now) {
+        lastSendTime = now;
+    }
+
+    /** Updates the smoothed round-trip time with a new sample (as defined in RFC 6298). */
+    private void updateRtt(long sample) {
+        sample = Math.max(1L, sample);
+
+        if(srtt == 0L) {
+            srtt = sample;
+            rttvar = sample / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - sample)) / 4;
+            srtt = (7 * srtt + sample) / 8;
+        }
+
+        rto = Math.min(MAX_RTO, Math.max(MIN_RTO, srtt + 4 * rttvar));
+    }
+
+    /** Returns the number of probes that should fit into the latency budget. */
+    private int probeCount() {
+        int count = MIN_PROBES + (int) Math.round(lossRate * (MAX_PROBES - MIN_PROBES) * 2);
+        return Math.min(MAX_PROBES, count);
+    }
+
+    /** Returns the time of silence in milliseconds before probing. */
+    private long idleInterval() {
+        long idle = latencyBudget - probeCount() * rto;
+        return Math.min(SEND_INTERVAL, Math.max(MIN_IDLE, idle));
+    }
+
+    /** @see LoopTimer#run(long) */
+    @Override
+    void run(long now) {
+        if(!alive) {
+            // keep knocking until something arrives (probes are not sent while logging in,
+            // so the next knock is timed from now as the send time may not move)
+            if(now - lastSendTime >= UNCONNECTED_INTERVAL) {
+                probe(now);
+                schedule(now + UNCONNECTED_INTERVAL);
+            } else {
+                schedule(lastSendTime + UNCONNECTED_INTERVAL);
+            }
+            return;
+        }
+
+        long silence = now - lastReceiveTime;
+        double phi = detector.phi(now);
+        // a healthy server answers the probe, so only an unanswered one can confirm the suspicion
+        boolean unanswered = probeSentTime > 0L && now - probeSentTime >= rto;
+        if(unanswered && (phi >= threshold || silence >= latencyBudget)) {
+            alive = false;
+            probeSentTime = 0L;
+            // the gap until the next arrival should not distort the window
+            detector.reset();
+            sessionLost();
+
+            schedule(now + UNCONNECTED_INTERVAL);
+            return;
+        }
+
+        long idle = idleInterval();
+        long next;
+
+        if(probeSentTime > 0L) {
+            // waiting for the answer of a probe
+            if(now - probeSentTime >= rto) {
+                lossRate = lossRate * 0.875 + 0.125;
+                // back off like TCP does, the next measurement sets it again
+                rto = Math.min(MAX_RTO, rto * 2);
+                probe(now);
+                probeRepeated = true;
+            }
+
+            next = probeSentTime + rto;
+        } else if(silence >= idle || now - lastSendTime >= SEND_INTERVAL || phi >= PROBE_SUSPICION) {
+            probe(now);
+            probeRepeated = false;
+
+            next = now + rto;
+        } else {
+            // traffic keeps flowing, check again when the silence could become suspicious
+            next = Math.min(lastReceiveTime + idle, lastSendTime + SEND_INTERVAL);
+        }
+
+        if(phi >= PROBE_SUSPICION) {
+            // the suspicion level is rising, follow it closely
+            next = Math.min(next, now + SUSPICION_CHECK_INTERVAL);
+        }
+
+        long deadline = lastReceiveTime + latencyBudget;
+        if(deadline > now) {
+            // once it passed the outstanding probe decides
+            next = Math.min(next, deadline);
+        }
+
+        schedule(next);
+    }
+
+    /** Sends a probe and registers it as outstanding. */
+    private void probe(long now) {
+        probeSentTime = now;
+        sendProbe();
+    }
+
+    /** Returns the time in milliseconds of silence after the session is considered lost. */
+    long getLatencyBudget() { return latencyBudget; }
+
+    /** Sets the time in milliseconds of silence after the session is considered lost. */
+    void setLatencyBudget(long latencyBudget) { this.latencyBudget = latencyBudget; }
+
+    /** Returns the current suspicion level of the session (0 while not connected). */
+    double getSuspicionLevel(long now) {
+        return alive ? detector.phi(now) : 0.0;
+    }
+
+    /** Returns the suspicion level above the session is considered lost. */
+    double getThreshold() { return threshold; }
+
+    /** Returns the smoothed round-trip time in milliseconds (0 until measured). */
+    long getSmoothedRtt() { return srtt; }
+
+    /** Returns the current probe timeout in milliseconds. */
+    long getRto() { return rto; }
+
+    /** Returns the smoothed ratio of unanswered probes. */
+    double getLossRate() { return lossRate; }
+
+}
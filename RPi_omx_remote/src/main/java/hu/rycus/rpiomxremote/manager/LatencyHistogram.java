@@ -0,0 +1,95 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Fixed memory histogram of latencies in milliseconds.
+ * Values are counted in logarithmic buckets (four buckets for every power of two)
+ * so recording is a few shifts and an increment and percentiles
+ * are accurate within 25% from 1 ms up to about a minute.
+ */
+public class LatencyHistogram {
+
+    /** The number of buckets for every power of two (as a power of two). */
+    private static final int SUB_BUCKET_BITS = 2;
+    /** The number of buckets for every power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** The highest power of two with its own buckets (larger values go to the last bucket). */
+    private static final int MAX_EXPONENT = 16;
+    /** The total number of buckets. */
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** The number of values in each bucket. */
+    private final long[] counts = new long[BUCKETS];
+    /** The number of recorded values. */
+    private long count = 0L;
+    /** The largest recorded value. */
+    private long max = 0L;
+
+    /** Package-private constructor. */
+    LatencyHistogram() { }
+
+    /** Records a latency in milliseconds. */
+    synchronized void record(long latency) {
+        if(latency < 0L) latency = 0L;
+
+        counts[bucketOf(latency)]++;
+        count++;
+        if(latency > max) max = latency;
+    }
+
+    /** Returns the index of the bucket the given value belongs to. */
+    private static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the largest value belonging to the bucket with the given index. */
+    private static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    /** Returns the number of recorded values. */
+    public synchronized long getCount() { return count; }
+
+    /** Returns the largest recorded value in milliseconds. */
+    public synchronized long getMax() { return max; }
+
+    /**
+     * Returns the (upper estimate of the) given percentile in milliseconds.
+     * @param percentile The percentile between 0 and 100
+     * @return The estimated value or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if(count == 0L) return 0L;
+
+        long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+        rank = Math.max(1L, rank);
+
+        long seen = 0L;
+        for(int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if(seen >= rank) {
+                // the last bucket has no upper bound
+                return bucket == BUCKETS - 1 ? max : Math.min(max, upperBoundOf(bucket));
+            }
+        }
+
+        return max;
+    }
+
+}
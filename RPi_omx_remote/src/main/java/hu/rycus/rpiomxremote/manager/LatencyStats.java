@@ -0,0 +1,70 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Latency histograms of the exchanges with the remote server by header.
+ * <ul>
+ *     <li>requests (file and settings lists) are measured until their response arrives</li>
+ *     <li>logins are measured until the session parameters arrive</li>
+ *     <li>seeks are measured until the next player state arrives</li>
+ * </ul>
+ * The time asynchronous messages wait for the dispatcher thread
+ * and the depth of its queue are recorded separately.
+ */
+public class LatencyStats {
+
+    /** The histograms indexed by header byte (created on the first measurement). */
+    private final LatencyHistogram[] histograms = new LatencyHistogram[256];
+
+    /** The time from receiving asynchronous messages to their handler starting. */
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    /** The depth of the dispatcher queue after the last message was handed over. */
+    private volatile int queueDepth = 0;
+    /** The largest depth of the dispatcher queue. */
+    private volatile int maxQueueDepth = 0;
+
+    /** Package-private constructor. */
+    LatencyStats() { }
+
+    /** Records a latency in milliseconds for the exchange with the given header. */
+    void record(int header, long latency) {
+        LatencyHistogram histogram;
+
+        synchronized (histograms) {
+            histogram = histograms[header & 0xFF];
+            if(histogram == null) {
+                histogram = new LatencyHistogram();
+                histograms[header & 0xFF] = histogram;
+            }
+        }
+
+        histogram.record(latency);
+    }
+
+    /** Returns the histogram of the exchange with the given header or null if nothing was measured. */
+    public LatencyHistogram get(int header) {
+        synchronized (histograms) {
+            return histograms[header & 0xFF];
+        }
+    }
+
+    /** Records the time in milliseconds from receiving an asynchronous message to its handler starting. */
+    void recordDispatch(long latency) {
+        dispatchLatency.record(latency);
+    }
+
+    /** Records the depth of the dispatcher queue after handing a message over (called from one thread). */
+    void recordQueueDepth(int depth) {
+        queueDepth = depth;
+        if(depth > maxQueueDepth) maxQueueDepth = depth;
+    }
+
+    /** Returns the histogram of the time asynchronous messages waited for the dispatcher thread. */
+    public LatencyHistogram getDispatchLatency() { return dispatchLatency; }
+
+    /** Returns the depth of the dispatcher queue after the last message was handed over. */
+    public int getQueueDepth() { return queueDepth; }
+
+    /** Returns the largest depth of the dispatcher queue. */
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+
+}
@@ -0,0 +1,34 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Timer task executed on the selector loop of the network handler,
+ * so timeouts and periodic messages run on the same thread as receiving.
+ */
+abstract class LoopTimer {
+
+    /** The time (in elapsed realtime milliseconds) when the timer should fire, 0 if not scheduled. */
+    private volatile long deadline = 0L;
+
+    /** Returns the time when the timer should fire (0 if not scheduled). */
+    long getDeadline() { return deadline; }
+
+    /** Schedules the timer to fire at the given time (in elapsed realtime milliseconds). */
+    void schedule(long time) { this.deadline = Math.max(1L, time); }
+
+    /** Cancels the timer. */
+    void cancel() { this.deadline = 0L; }
+
+    /** Returns true if the timer is scheduled and its deadline is already due. */
+    boolean isDue(long now) {
+        long time = deadline;
+        return time > 0L && time <= now;
+    }
+
+    /**
+     * Runs the timer task. The timer is cancelled before this is called,
+     * periodic timers should schedule themselves again.
+     * @param now The current time in elapsed realtime milliseconds
+     */
+    abstract void run(long now);
+
+}
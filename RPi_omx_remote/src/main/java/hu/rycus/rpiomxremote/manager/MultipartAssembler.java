@@ -0,0 +1,159 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.util.Log;
+
+/**
+ * Reassembles multipart messages from their raw fragments.
+ * Fragments are appended into a growable byte buffer per header
+ * and the contents get decoded only once, after the last fragment arrived.
+ * Partial messages are dropped when they grow over a size limit
+ * or when their last fragment does not arrive in time.
+ */
+class MultipartAssembler {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|MPA";
+
+    /** The partial messages indexed by their header byte. */
+    private final Partial[] partials = new Partial[256];
+
+    /** The maximum size of a reassembled message in bytes. */
+    private final int maxMessageSize;
+    /** Time in milliseconds after an incomplete message expires. */
+    private final long expiry;
+
+    /**
+     * Package-private constructor.
+     * @param maxMessageSize The maximum size of a reassembled message in bytes
+     * @param expiry         Time in milliseconds after an incomplete message expires
+     */
+    MultipartAssembler(int maxMessageSize, long expiry) {
+        this.maxMessageSize = maxMessageSize;
+        this.expiry = expiry;
+    }
+
+    /**
+     * Adds a received fragment to the message with the same header.
+     * @param fragment The received fragment (its buffer may be reused after this call)
+     * @param finish   Is this the last fragment? (or else more follows)
+     * @param now      The current time in elapsed realtime milliseconds
+     * @return The complete packet if this was its last fragment or null otherwise;
+     *         single part messages are returned as they are without copying
+     */
+    Packet append(Packet fragment, boolean finish, long now) {
+        int header = fragment.getHeader() & 0xFF;
+
+        Partial partial = partials[header];
+        if(partial == null || !partial.active) {
+            if(finish) {
+                // single part message, nothing to merge
+                return fragment;
+            }
+
+            if(partial == null) {
+                partial = new Partial();
+                partials[header] = partial;
+            }
+
+            partial.start(now + expiry);
+        }
+
+        if(!partial.discarding) {
+            int newLength = partial.length + fragment.getLength();
+            if(newLength > maxMessageSize) {
+                Log.e(LOG_TAG, "Multipart message (H" + Integer.toHexString(header) + ") " +
+                        "exceeds " + maxMessageSize + " bytes, dropping it");
+                partial.discard();
+            } else {
+                partial.append(fragment.getBuffer(), fragment.getOffset(), fragment.getLength());
+            }
+        }
+
+        if(finish) {
+            Packet packet = partial.discarding ? null : new Packet(header, partial.buffer, 0, partial.length);
+            partial.reset();
+            return packet;
+        }
+
+        return null;
+    }
+
+    /**
+     * Drops the incomplete messages that have expired.
+     * @param now The current time in elapsed realtime milliseconds
+     * @return The expiry time of the next incomplete message or 0 if there are none
+     */
+    long expire(long now) {
+        long next = 0L;
+
+        for(int header = 0; header < partials.length; header++) {
+            Partial partial = partials[header];
+            if(partial == null || !partial.active) continue;
+
+            if(partial.deadline <= now) {
+                Log.e(LOG_TAG, "Multipart message (H" + Integer.toHexString(header) + ") expired " +
+                        "after receiving " + partial.length + " bytes");
+                partial.reset();
+            } else if(next == 0L || partial.deadline < next) {
+                next = partial.deadline;
+            }
+        }
+
+        return next;
+    }
+
+    /** State of a single incomplete message. */
+    private static class Partial {
+
+        /** True while a message is being assembled. */
+        private boolean active = false;
+        /** True if the message exceeded the size limit and its fragments are ignored. */
+        private boolean discarding = false;
+        /** The time when the message expires. */
+        private long deadline;
+        /** The buffer containing the received contents. */
+        private byte[] buffer;
+        /** The number of bytes received so far. */
+        private int length;
+
+        /** Starts assembling a new message. */
+        void start(long deadline) {
+            this.active = true;
+            this.discarding = false;
+            this.deadline = deadline;
+            this.buffer = null;
+            this.length = 0;
+        }
+
+        /** Appends a fragment to the buffer growing it if necessary. */
+        void append(byte[] data, int offset, int count) {
+            if(buffer == null) {
+                buffer = new byte[Math.max(count * 2, 256)];
+            } else if(length + count > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, length + count)];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+
+            System.arraycopy(data, offset, buffer, length, count);
+            length += count;
+        }
+
+        /** Drops the contents received so far and ignores the rest of the message. */
+        void discard() {
+            this.discarding = true;
+            this.buffer = null;
+            this.length = 0;
+        }
+
+        /** Finishes the message (the completed buffer is handed over, not reused). */
+        void reset() {
+            this.active = false;
+            this.discarding = false;
+            this.buffer = null;
+            this.length = 0;
+        }
+
+    }
+
+}
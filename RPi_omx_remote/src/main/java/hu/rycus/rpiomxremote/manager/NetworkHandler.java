@@ -1,18 +1,19 @@
 package hu.rycus.rpiomxremote.manager;
 
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.net.DatagramPacket;
-import java.net.InetAddress;
+import java.io.IOException;
+import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
 import java.net.SocketAddress;
-import java.net.SocketTimeoutException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
 import hu.rycus.rpiomxremote.util.Flags;
 import hu.rycus.rpiomxremote.util.Header;
@@ -31,176 +32,867 @@ class NetworkHandler extends Thread {
     /** Tag for logcat. */
     private static final String LOG_TAG = "RPiOMX|NET";
 
+    /** Time in milliseconds after an incomplete multipart message is dropped. */
+    private static final long MULTIPART_EXPIRY                  = 15000L;
+    /** The maximum size of a multipart message in bytes. */
+    private static final int  MULTIPART_MAX_SIZE                = 4 * 1024 * 1024;
+    /** The delay window in milliseconds of the first login retry. */
+    private static final long LOGIN_BACKOFF_BASE                = 250L;
+    /** The maximum delay window in milliseconds between login retries. */
+    private static final long LOGIN_BACKOFF_MAX                 = 16000L;
+    /** Time in milliseconds after a message parked during login is dropped instead of sent. */
+    private static final long PARKED_EXPIRY                     = 5000L;
+    /** The maximum number of messages parked during login. */
+    private static final int  PARKED_MAX_COUNT                  = 64;
+    /** Time in milliseconds between keep-alive messages to the servers not in use. */
+    private static final long POOL_KEEPALIVE_INTERVAL           = KeepaliveScheduler.SEND_INTERVAL;
+    /** Time in milliseconds after a silent server not in use is forgotten. */
+    private static final long POOL_EXPIRY                       = 30000L;
+
+    /** The contents of the login request. */
+    private static final String LOGIN_MESSAGE = "RPi::omxremote";
+    /** Capability letter of servers supporting reliable messages in the login response. */
+    private static final char CAPABILITY_RELIABLE = 'R';
+    /** Sequence number placeholder for messages that are not reliable. */
+    private static final int NO_SEQUENCE = -1;
+
+    /** States of the session with the server. */
+    private enum SessionState {
+        /** No login was attempted yet. */
+        DISCONNECTED,
+        /** Waiting for the session parameters, messages needing a session are parked. */
+        LOGGING_IN,
+        /** The session is set, messages are sent immediately. */
+        ESTABLISHED
+    }
+
     /** Is this handler still enabled? */
-    private boolean enabled = true;
+    private volatile boolean enabled = true;
+
+    /** The non-blocking UDP channel used for communication. */
+    private DatagramChannel channel;
+    /** The selector waiting for incoming datagrams on the channel. */
+    private Selector selector;
 
-    /** The UDP/Multicast socket used for communication. */
-    private MulticastSocket socket;
+    /** Empty byte array used for messages without contents or session prefix. */
+    private static final byte[] EMPTY = new byte[0];
 
     /** The session ID used in communication (as sent by the remote server. */
     private String sessionID = "???";
+    /** The state of the session (guarded by the send lock). */
+    private SessionState sessionState = SessionState.DISCONNECTED;
+    /** Messages waiting for the session to be established (guarded by the send lock). */
+    private final LinkedList<ParkedMessage> parkedMessages = new LinkedList<ParkedMessage>();
+    /** Backoff of the login retries. */
+    private final Backoff loginBackoff = new Backoff(LOGIN_BACKOFF_BASE, LOGIN_BACKOFF_MAX);
+    /** The session ID encoded once per login, used to prefix outgoing messages. */
+    private volatile byte[] sessionPrefix = sessionID.getBytes();
     /** The buffer size (as defined by the remote server. */
-    private int bufferSize = 1500;
+    private volatile int bufferSize = 1500;
 
-    /** The last known address of the remote server. */
-    private SocketAddress address;
+    /** Reused direct buffer the outgoing datagrams are assembled in (guarded by the send lock). */
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(bufferSize);
 
-    /**
-     * Blocking queue containing the received but unprocessed packets
-     * (should be empty because there should always be a consumer for the next packet).
-     */
-    private final LinkedBlockingQueue<Packet> receivedPackets = new LinkedBlockingQueue<Packet>();
+    /** The last known address of the remote server (the multicast group until the first login). */
+    private volatile SocketAddress address;
+    /** The multicast group address used for discovery. */
+    private SocketAddress groupAddress;
+    /** The servers that answered a login, with their sessions. */
+    private final ServerRegistry registry = new ServerRegistry();
+    /** The server to switch to on the selector loop (null if no switch was requested). */
+    private volatile InetSocketAddress requestedServer;
+    /** The unicast address of the server stored from a previous run (null if not known). */
+    private volatile InetSocketAddress knownEndpoint;
+    /** The number of login requests sent since the login started (accessed on the selector loop). */
+    private int loginAttempts = 0;
+
+    /** Pool of buffers used for receiving datagrams. */
+    private final DatagramBufferPool bufferPool = new DatagramBufferPool(4, bufferSize);
+    /** Reusable packet wrapping the contents of the last received datagram. */
+    private final Packet receivedPacket = new Packet(0, null, 0, 0);
+
+    /** Timers running on the selector loop (registered before the handler is started). */
+    private final List<LoopTimer> timers = new ArrayList<LoopTimer>();
 
-    /** Map containing incomplete multipart packets by header. */
-    private final Map<Integer, Packet> incompleteMessages = new HashMap<Integer, Packet>();
+    /** The requests waiting for their responses. */
+    private final PendingRequests pendingRequests = new PendingRequests();
+
+    /** Sequencing, retransmission and duplicate suppression of reliable messages. */
+    private final ReliableChannel reliableChannel = new ReliableChannel();
+    /** True if the server in use supports reliable messages. */
+    private volatile boolean reliableSupported = false;
+    /** The size of the outgoing datagrams capped at the MTU of the interface. */
+    private final ChunkSizer chunkSizer = new ChunkSizer();
+
+    /** The latency histograms of the exchanges with the server. */
+    private final LatencyStats latencyStats;
+    /** The time the last login request was sent (0 if it was answered). */
+    private volatile long loginSentTime = 0L;
+    /** The time the last seek request was sent (0 if a player state arrived since). */
+    private volatile long seekSentTime = 0L;
+
+    /** Reassembles incomplete multipart packets by header. */
+    private final MultipartAssembler assembler = new MultipartAssembler(MULTIPART_MAX_SIZE, MULTIPART_EXPIRY);
+    /** Decompresses the messages sent with the compressed flag. */
+    private final PayloadInflater inflater = new PayloadInflater(MULTIPART_MAX_SIZE);
 
     /** The remote manager instance which created this handler. */
     private final RemoteManager manager;
     /**
-     * Set containing header types which should be processed asynchronously.
-     * At this level it means that they won't be offered to the packet queue,
-     * they will be forwarded to the manager instead to process it directly.
+     * Dispatcher of the header types which should be processed asynchronously.
+     * At this level it means that they won't complete a pending request,
+     * they will be passed to their registered handler instead to process them directly.
      */
-    private final Set<Integer> asynchHeaders;
+    private final PacketDispatcher dispatcher;
 
     /**
      * Package-private constructor with the creator/owner of the instance.
      * @param manager       The remote manager instance which created this handler
-     * @param asynchHeaders Set containing header types which should be processed asynchronously
+     * @param dispatcher    Dispatcher of the message types which should be processed asynchronously
      */
-    NetworkHandler(RemoteManager manager, Set<Integer> asynchHeaders) {
+    NetworkHandler(RemoteManager manager, PacketDispatcher dispatcher) {
         super("NetworkHandler");
 
         this.manager        = manager;
-        this.asynchHeaders  = asynchHeaders;
+        this.dispatcher     = dispatcher;
+        this.latencyStats   = manager.getLatencyStats();
+
+        addTimer(keepaliveScheduler);
+        addTimer(multipartExpiryTimer);
+        addTimer(requestTimeoutTimer);
+        addTimer(loginTimer);
+        addTimer(poolKeepaliveTimer);
+        addTimer(switchTimer);
+        addTimer(retransmitTimer);
     }
 
     /**
      * <p>
-     *     This basically waits for an UDP packet,
-     *     merges it with a previous one if it was multipart,
-     *     then either sends it to the remote manager to process it
-     *     or queues it to have it processed elsewhere.
+     *     This runs the selector loop: it waits for UDP packets or the next timer deadline,
+     *     merges received packets with a previous one if it was multipart,
+     *     then either sends them to the remote manager to process
+     *     or completes the request they are the response of.
      * </p>
      * <p>
-     *     This code automatically handles session parameter changes
-     *     and reconnections in case of communication loss.
+     *     This code automatically handles session parameter changes,
+     *     keep-alive messages and reconnections in case of communication loss.
      * </p>
      *
      * @see Runnable#run()
      */
     @Override
     public void run() {
+        long now = SystemClock.elapsedRealtime();
+        keepaliveScheduler.start(now);
+        poolKeepaliveTimer.schedule(now + POOL_KEEPALIVE_INTERVAL);
+
+        try {
+            while (enabled) {
+                long timeout = runTimers(SystemClock.elapsedRealtime());
+
+                // wait for a packet, a timer or a wakeup
+                selector.select(timeout);
+                if(!enabled) break;
+
+                selector.selectedKeys().clear();
+                receiveAvailable();
+            }
+        } catch(Exception ex) {
+            if(enabled) {
+                Log.e(LOG_TAG, "Network handler loop failed", ex);
+            }
+        } finally {
+            close();
+            pendingRequests.cancelAll();
+            // we are not connected anymore
+            manager.setConnected(false);
+        }
+    }
+
+    /**
+     * Runs the due timers.
+     * @param now The current time in elapsed realtime milliseconds
+     * @return The time to wait for the next timer in milliseconds (0 if there are none)
+     */
+    private long runTimers(long now) {
+        long next = Long.MAX_VALUE;
+
+        for(int idx = 0; idx < timers.size(); idx++) {
+            LoopTimer timer = timers.get(idx);
+            if(timer.isDue(now)) {
+                timer.cancel();
+                try {
+                    timer.run(now);
+                } catch(Exception ex) {
+                    Log.e(LOG_TAG, "Failed to run a timer", ex);
+                }
+            }
+
+            long deadline = timer.getDeadline();
+            if(deadline > 0L && deadline < next) {
+                next = deadline;
+            }
+        }
+
+        if(next == Long.MAX_VALUE) {
+            return 0L;
+        } else {
+            return Math.max(1L, next - SystemClock.elapsedRealtime());
+        }
+    }
+
+    /** Registers a timer to run on the selector loop (should be called before starting). */
+    void addTimer(LoopTimer timer) {
+        timers.add(timer);
+    }
+
+    /**
+     * Schedules a registered timer to fire at the given time
+     * and wakes up the selector loop to take the new deadline into account.
+     */
+    void schedule(LoopTimer timer, long time) {
+        timer.schedule(time);
+        wakeup();
+    }
+
+    /** Wakes up the selector loop if it is waiting. */
+    void wakeup() {
+        Selector sel = selector;
+        if(sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    /** Receives and processes every datagram available on the channel without blocking. */
+    private void receiveAvailable() throws IOException {
         while (enabled) {
-            // wait for a packet
-            DatagramPacket dp = receivePacket();
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                SocketAddress source = channel.receive(buffer);
+                if(source == null) {
+                    // nothing more to read
+                    return;
+                }
+
+                buffer.flip();
+                processDatagram(buffer, source);
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Processes one received datagram.
+     * @param datagram The buffer containing the datagram (backed by an array)
+     * @param source   The address the datagram was received from
+     */
+    private void processDatagram(ByteBuffer datagram, SocketAddress source) {
+        if(datagram.remaining() < 2) return;
+
+        long now = SystemClock.elapsedRealtime();
+
+        byte[] buffer = datagram.array();
+        int offset    = datagram.arrayOffset() + datagram.position();
+
+        int header  = buffer[offset] & 0xFF;
+        int flags   = buffer[offset + 1] & 0xFF;
+        int length  = datagram.remaining() - 2;
+
+        boolean finish = (flags & Flags.MORE_FOLLOWS) != Flags.MORE_FOLLOWS;
 
-            if(enabled && dp != null && dp.getLength() >= 2) {
+        if(!source.equals(address) && !(finish && header == Header.MSG_A_LOGIN)) {
+            // another server (its session is kept in the pool)
+            processPooledDatagram(header, finish, buffer, offset + 2, length, source, now);
+            return;
+        }
+
+        if(header != Header.MSG_A_LOGIN) {
+            if(header != Header.MSG_A_ERROR_INVALID_SESSION) {
                 // signal connection OK
                 manager.setConnected(true);
+            }
 
-                byte[] buffer = dp.getData();
+            keepaliveScheduler.onReceive(now, header == Header.MSG_A_KEEPALIVE);
+        }
 
-                int header  = buffer[0] & 0xFF;
-                int flags   = buffer[1] & 0xFF;
-                String data = new String(buffer, 2, dp.getLength() - 2);
+        if(Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG,
+                    "Packet received (H" + Integer.toHexString(header) + "), " +
+                    "length: " + length + " | " + (finish ? "Complete" : "INCOMPLETE"));
+        }
 
-                boolean finish = (flags & Flags.MORE_FOLLOWS) != Flags.MORE_FOLLOWS;
-                Log.d(LOG_TAG,
-                        "Packet received (H" + Integer.toHexString(header) + "), " +
-                        "length: " + (dp.getLength() - 2) + " | " + (finish ? "Complete" : "INCOMPLETE"));
+        if(finish && header == Header.MSG_A_LOGIN) {
+            Log.e(LOG_TAG, "Datagram packet received, header: 0x" + Integer.toHexString(header) + " source: " + source);
 
-                if(finish && header == Header.MSG_A_LOGIN) {
-                    // set session parameters
-                    address = dp.getSocketAddress();
+            if(!(source instanceof InetSocketAddress)) return;
 
-                    Log.e(LOG_TAG, "Datagram packet received, header: 0x" + Integer.toHexString(header) + " source: " + address);
+            String data = new String(buffer, offset + 2, length);
 
-                    String pattern = "^([0-9a-f\\-]+)\\s*\\(([0-9]+)\\)$";
-                    sessionID = data.replaceFirst(pattern, "$1");
+            // newer servers list their capabilities after the buffer size
+            String pattern = "^([0-9a-f\\-]+)\\s*\\(([0-9]+)\\)\\s*([A-Z]*)$";
+            String newSessionID = data.replaceFirst(pattern, "$1");
 
-                    String bufSize = data.replaceFirst(pattern, "$2");
-                    bufferSize = Integer.parseInt(bufSize);
+            String bufSize = data.replaceFirst(pattern, "$2");
+            int newBufferSize = Integer.parseInt(bufSize);
 
-                    Log.e(LOG_TAG, "Login result: " + sessionID + " (" + bufSize + ")");
+            String capabilities = data.replaceFirst(pattern, "$3");
+            boolean reliable = capabilities.indexOf(CAPABILITY_RELIABLE) >= 0;
 
-                    continue;
-                } else if(finish && header == Header.MSG_A_ERROR_INVALID_SESSION) {
-                    Log.e(LOG_TAG, "Invalid session error received");
-                    // signal connection loss
-                    manager.setConnected(false);
+            Log.e(LOG_TAG, "Login result: " + newSessionID + " (" + bufSize + ") " + capabilities);
 
-                    if(enabled) {
-                        // retry login
-                        sendWithoutSession(Header.MSG_A_LOGIN, "RPi::omxremote");
-                        continue;
-                    }
+            synchronized (this) {
+                if(sessionState == SessionState.ESTABLISHED && source.equals(address)) {
+                    // a late answer to another attempt (the retries go to more addresses)
+                    // or to a discovery must not replace the session in use
+                    Log.e(LOG_TAG, "Login result ignored, the session is already established");
+                    return;
                 }
+            }
 
-                // create a new version of a packet, possibly by merging this to a previous one
-                Packet packet = mergeIncomplete(header, data, finish);
-                if(packet != null) {
-                    // process this packet
-                    if(asynchHeaders.contains(header)) {
-                        manager.processAsynchPacket(packet);
-                    } else {
-                        receivedPackets.offer(packet);
+            long rtt = 0L;
+            long loginTime = loginSentTime;
+            if(loginTime > 0L) {
+                rtt = now - loginTime;
+                latencyStats.record(Header.MSG_A_LOGIN, rtt);
+            }
+
+            InetSocketAddress server = (InetSocketAddress) source;
+            registry.update(server, newSessionID, newBufferSize, reliable, rtt, now);
+
+            boolean activate;
+            synchronized (this) {
+                // the first server to answer is used until another one is selected
+                activate = sessionState != SessionState.ESTABLISHED;
+                if(activate) {
+                    if(!newSessionID.equals(sessionID)) {
+                        // sequence numbers belong to the session, the waiting messages
+                        // are sent again in the new one once it is established below
+                        resetReliableChannel(true);
                     }
+
+                    // set session parameters
+                    address = source;
+                    reliableSupported = reliable;
+                    sessionID = newSessionID;
+                    sessionPrefix = sessionID.getBytes();
+                    bufferSize = newBufferSize;
+                    bufferPool.setBufferSize(bufferSize);
                 }
+            }
+
+            if(activate) {
+                chunkSizer.reset(server, newBufferSize);
+                loginSentTime = 0L;
+                manager.setConnected(true);
+                keepaliveScheduler.onReceive(now, false);
+                manager.onEndpointFound(server, newBufferSize);
+                sessionEstablished(now);
             } else {
-                // we are not connected anymore
-                manager.setConnected(false);
+                Log.e(LOG_TAG, "Server discovered: " + source);
+            }
+
+            return;
+        } else if(finish && header == Header.MSG_A_ERROR_INVALID_SESSION) {
+            Log.e(LOG_TAG, "Invalid session error received");
+            // signal connection loss
+            manager.setConnected(false);
+
+            if(enabled) {
+                // log in again unless already doing so (the retries are timed by the login timer)
+                login();
+                return;
+            }
+        }
+
+        if(header == Header.MSG_A_ACK) {
+            if(length >= 2) {
+                acknowledged(((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF), now);
+            }
+            return;
+        }
+
+        boolean duplicate = false;
+        if((flags & Flags.RELIABLE) == Flags.RELIABLE) {
+            if(length < 2) return;
+
+            int sequence = ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+
+            // skip the sequence number as if it was part of the header
+            offset += 2;
+            length -= 2;
+
+            if(finish) {
+                // the last fragment is acknowledged (again, if the ack was lost) but processed only once
+                duplicate = !reliableChannel.accept(sequence);
+                transmit(Header.MSG_A_ACK, new byte[] { (byte) (sequence >> 8), (byte) sequence }, 0);
+            }
+        }
+
+        // wrap the received bytes without copying or decoding them
+        receivedPacket.reset(header, buffer, offset + 2, length);
+
+        // the packet is complete if this was its last fragment (possibly merged to previous ones)
+        Packet packet = assembler.append(receivedPacket, finish, now);
+        if(packet != null && !duplicate && (flags & Flags.COMPRESSED) == Flags.COMPRESSED) {
+            // the whole reassembled message is one compressed stream
+            packet = inflater.inflate(packet);
+            if(packet == null) return;
+        }
+
+        if(duplicate) {
+            Log.d(LOG_TAG, "Duplicate reliable message (H" + Integer.toHexString(header) + ") dropped");
+        } else if(packet == null) {
+            if(multipartExpiryTimer.getDeadline() == 0L) {
+                multipartExpiryTimer.schedule(now + MULTIPART_EXPIRY);
+            }
+        } else {
+            if(header == Header.MSG_A_START_VIDEO || header == Header.MSG_A_PLAYER_PARAMS) {
+                // remembered in case this server is switched back to from another one
+                if(packet == receivedPacket) packet = packet.detach();
+                rememberPlayerParams(registry.get(source), packet);
+            } else if(header == Header.MSG_A_STOP_VIDEO) {
+                rememberPlayerParams(registry.get(source), null);
+            } else if(header == Header.MSG_A_PLAYER_STATE) {
+                long seekTime = seekSentTime;
+                if(seekTime > 0L) {
+                    // the first player state after a seek should reflect the new position
+                    latencyStats.record(Header.MSG_A_SEEK_TO, now - seekTime);
+                    seekSentTime = 0L;
+                }
+            }
+
+            // process this packet on the dispatcher thread (which copies its contents)
+            // or complete a request with it
+            if(!dispatcher.dispatch(packet, now)) {
+                // the response outlives the pooled buffer so it needs its own copy
+                if(packet == receivedPacket) packet = packet.detach();
+
+                ResponseFuture request = pendingRequests.complete(packet);
+                if(request != null) {
+                    latencyStats.record(header, now - request.getStartTime());
+                } else {
+                    Log.e(LOG_TAG, "Unexpected response received (H" + Integer.toHexString(header) + ")");
+                }
             }
         }
     }
 
     /**
-     * Creates a new version of a packet, possibly by merging the given data into a previous packet.
-     * @param header The header of the received packet
-     * @param data   The (possibly partial) data of a packet
-     * @param finish Is this the last packet? (or else more follows)
-     * @return A new version of a packet with the given header
+     * Timer sending keep-alive probes when the received traffic does not prove
+     * the session to be alive and signalling connection loss when nothing
+     * was received within the latency budget.
+     * A lost connection starts a new login.
+     */
+    private final KeepaliveScheduler keepaliveScheduler = new KeepaliveScheduler() {
+        @Override
+        void sendProbe() {
+            if(isSessionEstablished()) {
+                send(Header.MSG_A_KEEPALIVE);
+            }
+        }
+
+        @Override
+        void sessionLost() {
+            Log.d(LOG_TAG, "Connection suspected lost " +
+                    "(RTT: " + getSmoothedRtt() + " ms, RTO: " + getRto() + " ms, loss: " + getLossRate() + ")");
+            manager.setConnected(false);
+
+            if(enabled) {
+                login();
+            }
+        }
+    };
+
+    /** Timer sending the login request again until the session parameters arrive. */
+    private final LoopTimer loginTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            synchronized (NetworkHandler.this) {
+                if(sessionState != SessionState.LOGGING_IN) return;
+            }
+
+            SocketAddress target = address;
+            InetSocketAddress known = knownEndpoint;
+
+            if(known != null && !known.equals(target)) {
+                // try the endpoint of the last run directly, it answers in one round-trip
+                sendLogin(known);
+
+                if(loginAttempts == 0) {
+                    // discovery starts with the first retry if the stored endpoint does not answer
+                    loginAttempts++;
+                    schedule(now + loginBackoff.next());
+                    return;
+                }
+            }
+
+            sendLogin(target);
+
+            loginAttempts++;
+            schedule(now + loginBackoff.next());
+        }
+    };
+
+    /**
+     * Starts logging in to the server unless a login is already in progress.
+     * Messages needing a session are parked until the session parameters arrive.
      */
-    private Packet mergeIncomplete(int header, String data, boolean finish) {
-        Packet incomplete = incompleteMessages.remove(header);
+    synchronized void login() {
+        if(sessionState == SessionState.LOGGING_IN) return;
 
-        // concatenate data
-        String newData = incomplete != null ? (incomplete.getData() + data) : data;
-        Packet packet = new Packet(header, newData);
+        sessionState = SessionState.LOGGING_IN;
+        loginBackoff.reset();
+        loginAttempts = 0;
 
-        if(finish) {
-            return packet;
+        // the first attempt goes out immediately, the retries back off
+        schedule(loginTimer, SystemClock.elapsedRealtime());
+    }
+
+    /** Sends a login request to the given address. */
+    private synchronized void sendLogin(SocketAddress target) {
+        loginSentTime = SystemClock.elapsedRealtime();
+
+        // the contents are kept as older servers expect them, the capabilities are flags
+        byte[] login = LOGIN_MESSAGE.getBytes();
+        int flags = Flags.WITHOUT_SESSION_ID | Flags.ACCEPTS_COMPRESSED;
+        if( transmit(Header.MSG_A_LOGIN, login, flags, NO_SEQUENCE, EMPTY, target) ) {
+            Log.e(LOG_TAG, "Login sent to " + target);
         } else {
-            incompleteMessages.put(header, packet);
-            return null;
+            Log.e(LOG_TAG, "Failed to send login request to " + target);
         }
     }
 
     /**
-     * Returns a queued packet immediately if there is any
-     * or null if there aren't any received packets queued.
+     * Processes a datagram of a server that is not in use:
+     * keep-alive answers update its round-trip time, player parameters are remembered
+     * for the time it is switched to and an invalid session drops it from the pool.
+     * Multipart messages are not assembled for these servers.
      */
-    Packet poll() { return poll(0L); }
+    private void processPooledDatagram(int header, boolean finish, byte[] buffer, int offset, int length,
+                                       SocketAddress source, long now) {
+        ServerRegistry.Server server = registry.get(source);
+        if(server == null) return;
 
-    /** Polls a queued packet waiting 2.5 seconds at most to receive one. */
-    Packet pollBlocking() { return poll(2500L); }
+        if(header == Header.MSG_A_ERROR_INVALID_SESSION) {
+            Log.e(LOG_TAG, "Session of " + source + " expired, dropping it from the pool");
+            registry.remove(source);
+            return;
+        }
 
-    /** Polls a queued packet waiting for the given time interval at most to receive one. */
-    Packet poll(long timeout) {
-        try {
-            if(timeout > 0L) {
-                return receivedPackets.poll(timeout, TimeUnit.MILLISECONDS);
+        synchronized (registry) {
+            server.lastSeen = now;
+
+            if(header == Header.MSG_A_KEEPALIVE && server.keepaliveSentTime > 0L) {
+                server.updateRtt(now - server.keepaliveSentTime);
+                server.keepaliveSentTime = 0L;
+            }
+        }
+
+        if(finish && (header == Header.MSG_A_START_VIDEO || header == Header.MSG_A_PLAYER_PARAMS)) {
+            rememberPlayerParams(server, new Packet(header, buffer, offset, length).detach());
+        } else if(header == Header.MSG_A_STOP_VIDEO) {
+            rememberPlayerParams(server, null);
+        }
+    }
+
+    /** Stores the last player parameters of a server (null if it stopped playing). */
+    private void rememberPlayerParams(ServerRegistry.Server server, Packet params) {
+        if(server == null) return;
+
+        synchronized (registry) {
+            server.playerParams = params;
+        }
+    }
+
+    /** Timer keeping the sessions of the servers not in use alive and forgetting the silent ones. */
+    private final LoopTimer poolKeepaliveTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            SocketAddress active = address;
+            registry.expire(now, POOL_EXPIRY, active);
+
+            for(ServerRegistry.Server server : registry.others(active)) {
+                byte[] prefix;
+                synchronized (registry) {
+                    prefix = server.sessionPrefix;
+                    server.keepaliveSentTime = now;
+                }
+
+                transmit(Header.MSG_A_KEEPALIVE, EMPTY, 0, NO_SEQUENCE, prefix, server.address);
+            }
+
+            schedule(now + POOL_KEEPALIVE_INTERVAL);
+        }
+    };
+
+    /** Timer switching to the requested server on the selector loop. */
+    private final LoopTimer switchTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            InetSocketAddress target = requestedServer;
+            requestedServer = null;
+            if(target == null) return;
+
+            ServerRegistry.Server server = registry.get(target);
+            if(server == null) {
+                Log.e(LOG_TAG, "Unknown server: " + target);
+                return;
+            }
+
+            Packet params;
+            synchronized (NetworkHandler.this) {
+                if(target.equals(address)) return;
+
+                ServerRegistry.Server previous = registry.get(address);
+
+                synchronized (registry) {
+                    if(previous != null) {
+                        // the previous server joins the pool with a fresh timestamp
+                        previous.lastSeen = now;
+                    }
+
+                    address = server.address;
+                    sessionID = server.sessionID;
+                    sessionPrefix = server.sessionPrefix;
+                    bufferSize = server.bufferSize;
+                    reliableSupported = server.reliable;
+                    params = server.playerParams;
+                }
+
+                // the waiting messages were meant for the previous server
+                resetReliableChannel(false);
+
+                bufferPool.setBufferSize(bufferSize);
+                sessionState = SessionState.ESTABLISHED;
+                loginTimer.cancel();
+            }
+
+            Log.e(LOG_TAG, "Switched to server " + target);
+
+            chunkSizer.reset(server.address, server.bufferSize);
+
+            // responses of the previous server will not arrive anymore
+            pendingRequests.cancelAll();
+            seekSentTime = 0L;
+
+            keepaliveScheduler.start(now);
+            keepaliveScheduler.onReceive(now, false);
+
+            manager.onEndpointFound(server.address, server.bufferSize);
+            manager.onServerSwitched(params);
+        }
+    };
+
+    /** Timer sending the unacknowledged reliable messages again. */
+    private final LoopTimer retransmitTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            List<ReliableChannel.Outgoing> retransmit = new ArrayList<ReliableChannel.Outgoing>();
+            List<ReliableChannel.Outgoing> abandoned = new ArrayList<ReliableChannel.Outgoing>();
+
+            long next = reliableChannel.collectDue(now, retransmit, abandoned);
+
+            for(ReliableChannel.Outgoing message : retransmit) {
+                Log.d(LOG_TAG, "Retransmitting H" + Integer.toHexString(message.header) + " #" + message.sequence);
+                transmit(message.header, message.data, message.flags | Flags.RELIABLE, message.sequence);
+            }
+
+            for(ReliableChannel.Outgoing message : abandoned) {
+                Log.e(LOG_TAG, "H" + Integer.toHexString(message.header) + " #" + message.sequence + " was not acknowledged");
+            }
+
+            if(next > 0L) {
+                schedule(next);
+            }
+        }
+    };
+
+    /** Completes a reliable message acknowledged by the server. */
+    private void acknowledged(int sequence, long now) {
+        ReliableChannel.Outgoing message = reliableChannel.acknowledge(sequence);
+        if(message == null) return;
+
+        if(message.retransmits == 0) {
+            // only the first transmission can be timed unambiguously
+            keepaliveScheduler.onRttSample(now - message.sentTime);
+        }
+    }
+
+    /**
+     * Clears the reliable channel state of the previous session.
+     * @param requeue True to park the unacknowledged messages so they are sent again
+     *                when the new session is established, false to drop them
+     */
+    private synchronized void resetReliableChannel(boolean requeue) {
+        List<ReliableChannel.Outgoing> waiting = reliableChannel.reset();
+        if(waiting.isEmpty()) return;
+
+        if(requeue) {
+            long now = SystemClock.elapsedRealtime();
+
+            // ahead of the messages parked since then, keeping their original order
+            for(int index = waiting.size() - 1; index >= 0; index--) {
+                ReliableChannel.Outgoing message = waiting.get(index);
+                parkedMessages.addFirst(new ParkedMessage(message.header, message.data, message.flags, now));
+            }
+
+            Log.e(LOG_TAG, waiting.size() + " unacknowledged reliable messages requeued for the new session");
+        } else {
+            Log.e(LOG_TAG, waiting.size() + " unacknowledged reliable messages dropped with the previous session");
+        }
+    }
+
+    /**
+     * Switches to another server that answered a login before,
+     * using its existing session (the switch happens on the selector loop).
+     */
+    void selectServer(InetSocketAddress server) {
+        requestedServer = server;
+        schedule(switchTimer, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Sends a login request to the multicast group; every server answering it
+     * joins the pool (the answer of the server in use is ignored, its session is kept).
+     */
+    void discoverServers() {
+        SocketAddress group = groupAddress;
+        if(group != null) {
+            sendLogin(group);
+        }
+    }
+
+    /** Returns the servers that answered a login request (marking the one in use as active). */
+    List<ServerInfo> getServers() {
+        return registry.snapshot(address);
+    }
+
+    /**
+     * Sets the endpoint stored from a previous run
+     * (this should be called before the handler is started).
+     */
+    void setKnownEndpoint(EndpointStore.Endpoint endpoint) {
+        this.knownEndpoint = endpoint.getAddress();
+        this.bufferSize = endpoint.getBufferSize();
+        bufferPool.setBufferSize(endpoint.getBufferSize());
+    }
+
+    /** Returns true if the session parameters are set and messages are sent immediately. */
+    synchronized boolean isSessionEstablished() {
+        return sessionState == SessionState.ESTABLISHED;
+    }
+
+    /** Sets the session established and sends the messages parked during the login. */
+    private synchronized void sessionEstablished(long now) {
+        sessionState = SessionState.ESTABLISHED;
+        loginTimer.cancel();
+
+        int replayed = 0;
+        int expired = 0;
+
+        while(!parkedMessages.isEmpty()) {
+            ParkedMessage message = parkedMessages.removeFirst();
+            if(now - message.time > PARKED_EXPIRY) {
+                expired++;
             } else {
-                return receivedPackets.poll();
+                dispatch(message.header, message.data, message.flags);
+                replayed++;
+            }
+        }
+
+        if(replayed > 0 || expired > 0) {
+            Log.d(LOG_TAG, "Parked messages replayed: " + replayed + ", expired: " + expired);
+        }
+    }
+
+    /** Timer dropping expired incomplete multipart messages. */
+    private final LoopTimer multipartExpiryTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            long next = assembler.expire(now);
+            if(next > 0L) {
+                schedule(next);
             }
-        } catch (InterruptedException e) { }
+        }
+    };
 
-        return null;
+    /** Timer completing the requests that did not receive a response in time. */
+    private final LoopTimer requestTimeoutTimer = new LoopTimer() {
+        @Override
+        void run(long now) {
+            long next = pendingRequests.expire(now);
+            if(next > 0L) {
+                schedule(next);
+            }
+        }
+    };
+
+    /**
+     * Sends a request and returns the future result of it.
+     * @param header   The header of the request (and the expected response)
+     * @param data     The contents of the request (may be null)
+     * @param timeout  Time in milliseconds to wait for the response
+     * @param callback The callback to notify on completion (may be null)
+     * @return The future result of the request
+     */
+    ResponseFuture request(int header, String data, long timeout, ResponseFuture.Callback callback) {
+        return request(header, data, timeout, null, callback);
     }
 
     /**
-     * Initializes the connection by setting the address, port number and other settings
-     * of the multicast UDP socket, then joins the multicast group.
+     * Sends a request and returns the future result of it.
+     * @param header   The header of the request (and the expected response)
+     * @param data     The contents of the request (may be null)
+     * @param timeout  Time in milliseconds to wait for the response
+     * @param matcher  The matcher deciding which responses belong to the request (may be null)
+     * @param callback The callback to notify on completion (may be null)
+     * @return The future result of the request
+     */
+    ResponseFuture request(int header, String data, long timeout,
+                           ResponseFuture.Matcher matcher, ResponseFuture.Callback callback) {
+        long now = SystemClock.elapsedRealtime();
+        long deadline = now + timeout;
+
+        // register first so a quick response can not arrive before its request is known
+        ResponseFuture future = pendingRequests.register(header, now, deadline, matcher, callback);
+
+        long timerDeadline = requestTimeoutTimer.getDeadline();
+        if(timerDeadline == 0L || deadline < timerDeadline) {
+            schedule(requestTimeoutTimer, deadline);
+        }
+
+        send(header, data != null ? data.getBytes() : EMPTY);
+        return future;
+    }
+
+    /** Sets the time in milliseconds of silence after the connection is considered lost. */
+    void setLatencyBudget(long latencyBudget) {
+        keepaliveScheduler.setLatencyBudget(latencyBudget);
+        wakeup();
+    }
+
+    /** Returns the current suspicion level of the connection (0 while not connected). */
+    double getSuspicionLevel() {
+        return keepaliveScheduler.getSuspicionLevel(SystemClock.elapsedRealtime());
+    }
+
+    /** Returns the suspicion level above the connection is considered lost. */
+    double getSuspicionThreshold() {
+        return keepaliveScheduler.getThreshold();
+    }
+
+    /** Returns the smoothed round-trip time to the server in milliseconds (0 until measured). */
+    long getSmoothedRtt() {
+        return keepaliveScheduler.getSmoothedRtt();
+    }
+
+    /**
+     * Initializes the connection by opening a non-blocking UDP channel on the port
+     * of the remote server and registering it with a selector.
+     * The login message is sent to the multicast group address
+     * (and to the endpoint stored from a previous run if there is one),
+     * the server answers it (and continues communication) with unicast messages.
      */
     boolean initialize() {
         // TODO from database
@@ -208,23 +900,26 @@ class NetworkHandler extends Thread {
         int port = 42001;
 
         try {
-            socket = new MulticastSocket(port);
-            socket.setTimeToLive(4); // TODO magic numbers
-            socket.setSoTimeout(10000);
-            socket.setLoopbackMode(true);
-        } catch(Exception ex) {
-            Log.e(LOG_TAG, "Failed to start multicast socket on port " + port, ex);
-        }
+            selector = Selector.open();
 
-        if(socket != null) {
-            try {
-                socket.joinGroup(InetAddress.getByName(group));
-                address = new InetSocketAddress(group, port);
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
 
-                return true;
-            } catch(Exception ex) {
-                Log.e(LOG_TAG, "Failed to join multicast group at " + group, ex);
-            }
+            // joining a multicast group with a channel is not supported on older platforms
+            // but this is not necessary since only the login request is sent to the group
+            DatagramSocket socket = channel.socket();
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(port));
+
+            channel.register(selector, SelectionKey.OP_READ);
+
+            groupAddress = new InetSocketAddress(group, port);
+            address = groupAddress;
+
+            return true;
+        } catch(Exception ex) {
+            Log.e(LOG_TAG, "Failed to open datagram channel on port " + port, ex);
+            close();
         }
 
         return false;
@@ -233,28 +928,32 @@ class NetworkHandler extends Thread {
     /** Stops this network handler instance. */
     void shutdown() {
         enabled = false;
-        interrupt();
 
-        if(socket != null) socket.close();
+        if(isAlive()) {
+            // the selector loop closes the channel when it exits
+            wakeup();
+        } else {
+            close();
+        }
 
         Log.e(LOG_TAG, "Network handler stopped");
     }
 
-    /** Helper method to receive one UDP datagram packet. */
-    private DatagramPacket receivePacket() {
+    /** Closes the channel and the selector. */
+    private void close() {
         try {
-            DatagramPacket packet = new DatagramPacket(new byte[bufferSize], bufferSize);
-            socket.receive(packet);
-            return packet;
-        } catch(SocketTimeoutException stex) {
-            Log.d(LOG_TAG, "Socket timeout");
-        } catch(Exception ex) {
-            if(enabled) {
-                Log.e(LOG_TAG, "Failed to receive datagram packet", ex);
-            }
+            if(channel != null) channel.close();
+        } catch(IOException ex) {
+            Log.d(LOG_TAG, "Failed to close datagram channel", ex);
         }
 
-        return null;
+        try {
+            if(selector != null) selector.close();
+        } catch(IOException ex) {
+            Log.d(LOG_TAG, "Failed to close selector", ex);
+        }
+
+        inflater.close();
     }
 
     /**
@@ -277,7 +976,7 @@ class NetworkHandler extends Thread {
     }
     /** Sends a command with the given header and no content prefixing it with the session ID. */
     boolean send(int header) {
-        return send(header, new byte[0]);
+        return send(header, EMPTY);
     }
     /** Sends a command with the given header and data contents prefixing it with the session ID. */
     boolean send(int header, byte[] data) {
@@ -286,70 +985,161 @@ class NetworkHandler extends Thread {
     /**
      * Sends a command with the given header and data contents
      * modifying it according to the given flags.
+     * Commands needing a session are parked while logging in
+     * (keep-alive messages are not, they would be pointless by then).
      */
-    private boolean send(int header, byte[] data, int flags) {
-        Log.v(LOG_TAG, "Sending H" + Integer.toHexString(header) + ": " + new String(data));
-
-        if( (flags & Flags.WITHOUT_SESSION_ID) != Flags.WITHOUT_SESSION_ID ) {
-            byte[] fulldata = new byte[sessionID.length() + data.length];
+    private synchronized boolean send(int header, byte[] data, int flags) {
+        boolean needsSession = (flags & Flags.WITHOUT_SESSION_ID) != Flags.WITHOUT_SESSION_ID;
+        if(needsSession && sessionState != SessionState.ESTABLISHED) {
+            if(header != Header.MSG_A_KEEPALIVE) {
+                if(parkedMessages.size() >= PARKED_MAX_COUNT) {
+                    parkedMessages.removeFirst();
+                }
 
-            System.arraycopy(sessionID.getBytes(), 0, fulldata, 0, sessionID.length());
-            System.arraycopy(data, 0, fulldata, sessionID.length(), data.length);
+                parkedMessages.addLast(new ParkedMessage(header, data, flags, SystemClock.elapsedRealtime()));
+            }
 
-            data = fulldata;
+            return true;
         }
 
-        int maxSize = bufferSize - 2; // BufferSize - (HeaderLength + FlagsLength)
-        int toSend = data.length;
+        return dispatch(header, data, flags);
+    }
+    /**
+     * Transmits a message, delivering it reliably
+     * if it is critical and the server supports acknowledgements.
+     */
+    private synchronized boolean dispatch(int header, byte[] data, int flags) {
+        if(reliableSupported && ReliableChannel.isCritical(header)) {
+            long now = SystemClock.elapsedRealtime();
+            ReliableChannel.Outgoing message =
+                    reliableChannel.register(header, data, flags, now, keepaliveScheduler.getRto());
 
-        int offset = 0;
+            long timerDeadline = retransmitTimer.getDeadline();
+            if(timerDeadline == 0L || message.deadline < timerDeadline) {
+                schedule(retransmitTimer, message.deadline);
+            }
 
-        // send multipart chunks
-        while (toSend > maxSize) {
-            flags |= Flags.MORE_FOLLOWS;
+            return transmit(header, data, flags | Flags.RELIABLE, message.sequence);
+        }
 
-            byte[] buffer = new byte[bufferSize];
-            buffer[0] = (byte) header;
-            buffer[1] = (byte) flags;
-            System.arraycopy(data, offset, buffer, 2, maxSize);
+        return transmit(header, data, flags);
+    }
+    /**
+     * Transmits a message with the given header and data contents
+     * modifying it according to the given flags.
+     * The session prefix and the contents are treated as one continuous message
+     * which is split into chunks no larger than the MTU of the interface
+     * and the buffer size of the server allow (see {@link ChunkSizer});
+     * each chunk is written straight into a reused direct buffer without intermediate copies.
+     */
+    private synchronized boolean transmit(int header, byte[] data, int flags) {
+        return transmit(header, data, flags, NO_SEQUENCE);
+    }
+    /** Transmits a message with the given sequence number if it is reliable (see above). */
+    private synchronized boolean transmit(int header, byte[] data, int flags, int sequence) {
+        long now = SystemClock.elapsedRealtime();
+        keepaliveScheduler.onSend(now);
 
-            try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address);
-                socket.send(packet);
+        if(header == Header.MSG_A_LOGIN) {
+            loginSentTime = now;
+        } else if(header == Header.MSG_A_SEEK_TO) {
+            seekSentTime = now;
+        }
 
-                Log.i(LOG_TAG, "Sent " + buffer.length + " bytes");
-            } catch(Exception ex) {
-                Log.e(LOG_TAG, "Failed to send message to " + address, ex);
-                return false;
-            }
+        byte[] prefix = (flags & Flags.WITHOUT_SESSION_ID) != Flags.WITHOUT_SESSION_ID ? sessionPrefix : EMPTY;
+        return transmit(header, data, flags, sequence, prefix, address);
+    }
+    /** Transmits a message with the given session prefix to the given address (see above). */
+    private synchronized boolean transmit(int header, byte[] data, int flags, int sequence,
+                                          byte[] prefix, SocketAddress target) {
+        if(Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "Sending H" + Integer.toHexString(header) + ": " + data.length + " bytes to " + target);
+        }
 
-            offset += maxSize;
-            toSend -= maxSize;
+        int size = Math.min(bufferSize, chunkSizer.getSize());
+        if(sendBuffer.capacity() < size) {
+            sendBuffer = ByteBuffer.allocateDirect(size);
         }
 
-        flags &= ~Flags.MORE_FOLLOWS;
+        boolean reliable = (flags & Flags.RELIABLE) == Flags.RELIABLE;
 
-        // send the rest of the message
-        if (toSend > 0 || data.length == 0) {
-            byte[] buffer = new byte[2 + data.length];
-            buffer[0] = (byte) header;
-            buffer[1] = (byte) flags;
-            if(data.length > 0) {
-                System.arraycopy(data, offset, buffer, 2, data.length);
+        int maxSize = size - 2; // BufferSize - (HeaderLength + FlagsLength)
+        if(reliable) {
+            maxSize -= 2; // every chunk carries the sequence number
+        }
+        int total   = prefix.length + data.length;
+        int sent    = 0;
+
+        // send multipart chunks (or a single header-only message without contents)
+        do {
+            int chunk = Math.min(maxSize, total - sent);
+            boolean last = sent + chunk >= total;
+
+            ByteBuffer buffer = sendBuffer;
+            buffer.clear();
+            buffer.put((byte) header);
+            buffer.put((byte) (last ? (flags & ~Flags.MORE_FOLLOWS) : (flags | Flags.MORE_FOLLOWS)));
+            if(reliable) {
+                buffer.put((byte) (sequence >> 8));
+                buffer.put((byte) sequence);
             }
 
+            // the part of the session prefix that belongs to this chunk
+            int prefixCount = 0;
+            if(sent < prefix.length) {
+                prefixCount = Math.min(prefix.length - sent, chunk);
+                buffer.put(prefix, sent, prefixCount);
+            }
+
+            // the part of the contents that belongs to this chunk
+            int dataCount = chunk - prefixCount;
+            if(dataCount > 0) {
+                buffer.put(data, sent + prefixCount - prefix.length, dataCount);
+            }
+
+            buffer.flip();
+
             try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address);
-                socket.send(packet);
+                int written = channel.send(buffer, target);
+                if(written == 0) {
+                    Log.e(LOG_TAG, "Failed to send message to " + target + ", send buffer is full");
+                    return false;
+                }
 
-                Log.i(LOG_TAG, "Sent " + buffer.length + " bytes");
+                if(Log.isLoggable(LOG_TAG, Log.INFO)) {
+                    Log.i(LOG_TAG, "Sent " + written + " bytes");
+                }
             } catch(Exception ex) {
-                Log.e(LOG_TAG, "Failed to send message to " + address, ex);
+                Log.e(LOG_TAG, "Failed to send message to " + target, ex);
                 return false;
             }
-        }
+
+            sent += chunk;
+        } while (sent < total);
 
         return true;
     }
 
+    /** A message waiting for the session to be established. */
+    private static class ParkedMessage {
+
+        /** The header of the message. */
+        private final int header;
+        /** The contents of the message. */
+        private final byte[] data;
+        /** The flags of the message. */
+        private final int flags;
+        /** The time (in elapsed realtime milliseconds) the message was parked. */
+        private final long time;
+
+        /** Constructor with the message parameters. */
+        ParkedMessage(int header, byte[] data, int flags, long time) {
+            this.header = header;
+            this.data = data;
+            this.flags = flags;
+            this.time = time;
+        }
+
+    }
+
 }
@@ -1,9 +1,9 @@
 package hu.rycus.rpiomxremote.manager;
 
-import java.net.SocketAddress;
-
 /**
  * An object containing the data received from the server.
+ * The contents are kept as raw bytes and only decoded into a String
+ * when a consumer asks for it.
  *
  * <br/>
  * Created by Viktor Adam on 10/30/13.
@@ -13,9 +13,15 @@ import java.net.SocketAddress;
 public class Packet {
 
     /** The header of the packet. */
-    private final int header;
-    /** The contents of the packet as String. */
-    private final String data;
+    private int header;
+    /** The buffer holding the raw contents of the packet. */
+    private byte[] buffer;
+    /** The offset of the contents in the buffer. */
+    private int offset;
+    /** The length of the contents in the buffer. */
+    private int length;
+    /** The contents of the packet as String (decoded on first access). */
+    private String data;
 
     /**
      * Constructor to create a packet with header and data contents.
@@ -27,10 +33,61 @@ public class Packet {
         this.data = data;
     }
 
+    /**
+     * Package-private constructor to create a packet backed by raw bytes.
+     * @param header The header of the packet
+     * @param buffer The buffer holding the raw contents
+     * @param offset The offset of the contents in the buffer
+     * @param length The length of the contents in the buffer
+     */
+    Packet(int header, byte[] buffer, int offset, int length) {
+        reset(header, buffer, offset, length);
+    }
+
+    /**
+     * Points this packet at new raw contents so the instance can be reused
+     * for the next received datagram without allocating.
+     */
+    void reset(int header, byte[] buffer, int offset, int length) {
+        this.header = header;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.data   = null;
+    }
+
+    /**
+     * Returns a copy of this packet that owns its contents,
+     * so it stays valid after the backing buffer is reused.
+     */
+    Packet detach() {
+        if(buffer == null) {
+            return new Packet(header, data);
+        }
+
+        byte[] copy = new byte[length];
+        System.arraycopy(buffer, offset, copy, 0, length);
+        return new Packet(header, copy, 0, length);
+    }
+
     /** Returns the header of the packet. */
     public int getHeader() { return header; }
 
     /** Returns the contents of the packet as String. */
-    public String getData() { return data; }
+    public String getData() {
+        if(data == null && buffer != null) {
+            data = new String(buffer, offset, length);
+        }
+        return data;
+    }
+
+    /** Returns the buffer holding the raw contents (null if created from a String). */
+    byte[] getBuffer() { return buffer; }
+
+    /** Returns the offset of the contents in the raw buffer. */
+    int getOffset() { return offset; }
+
+    /** Returns the length of the contents in the raw buffer. */
+    int getLength() { return length; }
 
 }
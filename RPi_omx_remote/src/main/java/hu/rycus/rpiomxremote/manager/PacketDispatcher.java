@@ -0,0 +1,276 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Routes incoming messages to their handlers through a table indexed by the header byte,
+ * so dispatching needs no boxing or lookup and new message types only need a registration.
+ * Handlers should be registered before the network handler is started.
+ * <p>
+ *     The handlers run on this dispatcher thread, not on the network thread,
+ *     so notifications and broadcasts triggered by a message do not delay
+ *     reading the next datagrams; messages and posted tasks are processed
+ *     in the order they were handed over.
+ *     The time from receiving a message to its handler starting
+ *     and the depth of the queue are recorded in the latency statistics.
+ * </p>
+ * <p>
+ *     The queue is a linked list of dispatch records that are recycled
+ *     after their message was handled and the contents of short messages
+ *     are copied into the buffer of their record, so a steady stream
+ *     of messages (like the player states) is dispatched without allocating.
+ *     Handlers must not keep the packet after they returned.
+ * </p>
+ */
+class PacketDispatcher extends Thread {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|DSP";
+
+    /** Handler doing nothing for messages that only need to be received (like keep-alive). */
+    static final PacketHandler IGNORE = new PacketHandler() {
+        @Override
+        public void handle(Packet packet) { }
+    };
+
+    /** The maximum number of recycled dispatch records kept for reuse. */
+    private static final int MAX_POOLED_RECORDS = 32;
+    /** The length of the longest message contents copied into a recycled buffer. */
+    private static final int MAX_POOLED_CONTENTS = 512;
+
+    /** The registered handlers indexed by their header byte. */
+    private final PacketHandler[] handlers = new PacketHandler[256];
+
+    /** Lock guarding the queue and the recycled records. */
+    private final Object lock = new Object();
+    /** The first message or task waiting to be processed (null if the queue is empty). */
+    private Dispatch head = null;
+    /** The last message or task waiting to be processed (null if the queue is empty). */
+    private Dispatch tail = null;
+    /** The number of messages and tasks waiting to be processed. */
+    private int size = 0;
+    /** The first recycled dispatch record (null if none). */
+    private Dispatch recycled = null;
+    /** The number of recycled dispatch records. */
+    private int recycledCount = 0;
+
+    /** The statistics the dispatch latency and queue depth are recorded into. */
+    private final LatencyStats latencyStats;
+
+    /** Is this dispatcher still enabled? */
+    private volatile boolean enabled = true;
+    /** The receive time of the message being handled (used on the dispatcher thread only). */
+    private long receiveTime = 0L;
+
+    /**
+     * Package-private constructor.
+     * @param latencyStats The statistics to record the dispatch latency and queue depth into
+     */
+    PacketDispatcher(LatencyStats latencyStats) {
+        super("PacketDispatcher");
+
+        this.latencyStats = latencyStats;
+    }
+
+    /**
+     * Registers the handler of a message type (replacing the previous one).
+     * @param header  The header of the message type from {@link hu.rycus.rpiomxremote.util.Header}
+     * @param handler The handler to process the messages with
+     */
+    void register(int header, PacketHandler handler) {
+        handlers[header & 0xFF] = handler;
+    }
+
+    /** Returns the handler registered for the given header (null if there is none). */
+    PacketHandler getHandler(int header) {
+        return handlers[header & 0xFF];
+    }
+
+    /**
+     * Hands the message over to the handler registered for its header.
+     * @param packet      The received message (its contents are copied,
+     *                    so it may be backed by a buffer that is reused after this call)
+     * @param receiveTime The time the message was received in elapsed realtime milliseconds
+     * @return true if the message will be handled, false if there is no handler
+     *         (so it should be a response of a request)
+     */
+    boolean dispatch(Packet packet, long receiveTime) {
+        PacketHandler handler = getHandler(packet.getHeader());
+        if(handler == null) return false;
+
+        synchronized (lock) {
+            Dispatch dispatch = obtain();
+            dispatch.handler = handler;
+            dispatch.time = receiveTime;
+
+            if(packet.getBuffer() != null && packet.getLength() <= MAX_POOLED_CONTENTS) {
+                dispatch.packet = dispatch.copy(packet);
+            } else {
+                dispatch.packet = packet.detach();
+            }
+
+            enqueue(dispatch);
+        }
+        return true;
+    }
+
+    /** Runs a task on the dispatcher thread after the messages handed over before it. */
+    void post(Runnable task) {
+        synchronized (lock) {
+            Dispatch dispatch = obtain();
+            dispatch.task = task;
+            dispatch.time = SystemClock.elapsedRealtime();
+
+            enqueue(dispatch);
+        }
+    }
+
+    /** Returns a recycled dispatch record or a new one if none is available (holding the lock). */
+    private Dispatch obtain() {
+        Dispatch dispatch = recycled;
+        if(dispatch == null) {
+            return new Dispatch();
+        }
+
+        recycled = dispatch.next;
+        recycledCount--;
+        dispatch.next = null;
+        return dispatch;
+    }
+
+    /** Adds an item to the queue and records the depth of the queue (holding the lock). */
+    private void enqueue(Dispatch dispatch) {
+        if(tail == null) {
+            head = dispatch;
+        } else {
+            tail.next = dispatch;
+        }
+        tail = dispatch;
+        size++;
+
+        latencyStats.recordQueueDepth(size);
+        lock.notify();
+    }
+
+    /** Waits for the next item of the queue and removes it. */
+    private Dispatch take() throws InterruptedException {
+        synchronized (lock) {
+            while(head == null) {
+                lock.wait();
+            }
+
+            Dispatch dispatch = head;
+            head = dispatch.next;
+            if(head == null) {
+                tail = null;
+            }
+            size--;
+
+            dispatch.next = null;
+            return dispatch;
+        }
+    }
+
+    /** Clears a processed dispatch record and keeps it for reuse unless enough are kept already. */
+    private void recycle(Dispatch dispatch) {
+        dispatch.handler = null;
+        dispatch.packet = null;
+        dispatch.task = null;
+
+        synchronized (lock) {
+            if(recycledCount < MAX_POOLED_RECORDS) {
+                dispatch.next = recycled;
+                recycled = dispatch;
+                recycledCount++;
+            }
+        }
+    }
+
+    /**
+     * Processes the queued messages and tasks until shut down.
+     *
+     * @see Runnable#run()
+     */
+    @Override
+    public void run() {
+        while(enabled) {
+            Dispatch dispatch;
+            try {
+                dispatch = take();
+            } catch(InterruptedException ex) {
+                continue;
+            }
+
+            if(dispatch.packet != null) {
+                latencyStats.recordDispatch(SystemClock.elapsedRealtime() - dispatch.time);
+            }
+
+            receiveTime = dispatch.time;
+
+            try {
+                if(dispatch.task != null) {
+                    dispatch.task.run();
+                } else {
+                    dispatch.handler.handle(dispatch.packet);
+                }
+            } catch(Exception ex) {
+                Log.e(LOG_TAG, "Failed to process a message", ex);
+            }
+
+            recycle(dispatch);
+        }
+
+        int left;
+        synchronized (lock) {
+            left = size;
+        }
+        Log.d(LOG_TAG, "Dispatcher stopped with " + left + " items left");
+    }
+
+    /**
+     * Returns the time the message being handled was received in elapsed realtime milliseconds
+     * (to be called from handlers only).
+     */
+    long getReceiveTime() { return receiveTime; }
+
+    /** Stops this dispatcher dropping the messages not processed yet. */
+    void shutdown() {
+        enabled = false;
+        interrupt();
+    }
+
+    /** A message or task waiting to be processed (recycled after it was processed). */
+    private static class Dispatch {
+
+        /** The handler of the message (null for tasks). */
+        private PacketHandler handler;
+        /** The message to process (null for tasks). */
+        private Packet packet;
+        /** The task to run (null for messages). */
+        private Runnable task;
+        /** The time the item was received or posted. */
+        private long time;
+        /** The next item in the queue or in the recycled records. */
+        private Dispatch next;
+
+        /** The reused packet pointing at the copied contents. */
+        private final Packet contentsPacket = new Packet(0, null, 0, 0);
+        /** The reused buffer of the copied contents (grows as needed). */
+        private byte[] contents = new byte[64];
+
+        /** Copies the contents of the packet into the reused buffer and returns the reused packet. */
+        Packet copy(Packet packet) {
+            int length = packet.getLength();
+            if(contents.length < length) {
+                contents = new byte[Math.max(length, contents.length * 2)];
+            }
+
+            System.arraycopy(packet.getBuffer(), packet.getOffset(), contents, 0, length);
+            contentsPacket.reset(packet.getHeader(), contents, 0, length);
+            return contentsPacket;
+        }
+
+    }
+
+}
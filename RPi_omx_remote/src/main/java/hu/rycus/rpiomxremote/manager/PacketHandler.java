@@ -0,0 +1,15 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Handler of the messages with a given header that are not responses of a request
+ * (see {@link PacketDispatcher}).
+ */
+interface PacketHandler {
+
+    /**
+     * Processes a complete message (on the dispatcher thread).
+     * @param packet The received message
+     */
+    void handle(Packet packet);
+
+}
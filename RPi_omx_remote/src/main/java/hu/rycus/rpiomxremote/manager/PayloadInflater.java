@@ -0,0 +1,84 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.util.Log;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the contents of messages sent with the compressed flag
+ * (zlib streams, as produced by the server for large responses like file listings).
+ * The inflater and its output buffer are reused, so instances are not thread-safe
+ * and should only be used from the selector loop.
+ */
+class PayloadInflater {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|INF";
+
+    /** The reused zlib decompressor. */
+    private final Inflater inflater = new Inflater();
+    /** The maximum size of a decompressed message in bytes. */
+    private final int maxMessageSize;
+
+    /** Reused output buffer grown on demand. */
+    private byte[] output = new byte[8 * 1024];
+
+    /**
+     * Package-private constructor.
+     * @param maxMessageSize The maximum size of a decompressed message in bytes
+     */
+    PayloadInflater(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Decompresses the contents of a complete message.
+     * @param packet The compressed message (its buffer may be reused after this call)
+     * @return A new packet with the decompressed contents or null if they could not be decompressed
+     */
+    Packet inflate(Packet packet) {
+        inflater.reset();
+        inflater.setInput(packet.getBuffer(), packet.getOffset(), packet.getLength());
+
+        int length = 0;
+        try {
+            while(!inflater.finished()) {
+                if(length == output.length) {
+                    if(output.length >= maxMessageSize) {
+                        Log.e(LOG_TAG, "Compressed message (H" + Integer.toHexString(packet.getHeader()) + ") " +
+                                "exceeds " + maxMessageSize + " bytes, dropping it");
+                        return null;
+                    }
+
+                    byte[] grown = new byte[Math.min(output.length * 2, maxMessageSize)];
+                    System.arraycopy(output, 0, grown, 0, length);
+                    output = grown;
+                }
+
+                int count = inflater.inflate(output, length, output.length - length);
+                if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    Log.e(LOG_TAG, "Compressed message (H" + Integer.toHexString(packet.getHeader()) + ") " +
+                            "is truncated, dropping it");
+                    return null;
+                }
+
+                length += count;
+            }
+        } catch(DataFormatException ex) {
+            Log.e(LOG_TAG, "Failed to decompress message (H" + Integer.toHexString(packet.getHeader()) + ")", ex);
+            return null;
+        }
+
+        // the packet outlives the reused output buffer
+        byte[] contents = new byte[length];
+        System.arraycopy(output, 0, contents, 0, length);
+        return new Packet(packet.getHeader(), contents, 0, length);
+    }
+
+    /** Releases the native resources of the decompressor. */
+    void close() {
+        inflater.end();
+    }
+
+}
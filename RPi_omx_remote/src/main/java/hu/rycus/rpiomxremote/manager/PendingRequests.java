@@ -0,0 +1,170 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Correlation layer matching responses to the requests that produced them.
+ * <p>
+ *     The protocol has no request identifiers but the server answers
+ *     requests of the same type in order, so requests are kept in a FIFO per header
+ *     and a response completes the oldest request waiting for it
+ *     that accepts the response (requests without a matcher accept any response).
+ * </p>
+ * <p>
+ *     Timed out requests stay in their FIFO for a grace period as abandoned entries
+ *     so a late response consumes its own (abandoned) request
+ *     instead of being handed to the caller of a later request.
+ * </p>
+ */
+class PendingRequests {
+
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|REQ";
+
+    /** Time in milliseconds a timed out request waits for its late response. */
+    private static final long ABANDON_GRACE = 30000L;
+
+    /** The waiting requests in order by header byte. */
+    private final Entries[] pending = new Entries[256];
+
+    /**
+     * Registers a new request. This should be called before sending the request.
+     * @param header    The header of the request (and the expected response)
+     * @param startTime The time (in elapsed realtime milliseconds) when the request is sent
+     * @param deadline The time (in elapsed realtime milliseconds) when the request times out
+     * @param matcher  The matcher deciding which responses belong to the request (may be null)
+     * @param callback The callback to notify on completion (may be null)
+     * @return The future result of the request
+     */
+    ResponseFuture register(int header, long startTime, long deadline,
+                            ResponseFuture.Matcher matcher, ResponseFuture.Callback callback) {
+        ResponseFuture future = new ResponseFuture(header, startTime, deadline, matcher, callback);
+
+        synchronized (this) {
+            Entries entries = pending[header & 0xFF];
+            if(entries == null) {
+                entries = new Entries();
+                pending[header & 0xFF] = entries;
+            }
+
+            entries.add(future);
+        }
+
+        return future;
+    }
+
+    /**
+     * Completes the oldest request accepting the given response.
+     * @param packet The response packet (it should own its contents)
+     * @return The request the response was matched to (even an abandoned one) or null
+     */
+    ResponseFuture complete(Packet packet) {
+        ResponseFuture future = null;
+
+        synchronized (this) {
+            Entries entries = pending[packet.getHeader() & 0xFF];
+            if(entries == null) {
+                return null;
+            }
+
+            Iterator<ResponseFuture> iterator = entries.iterator();
+            while(iterator.hasNext()) {
+                ResponseFuture candidate = iterator.next();
+                if(candidate.accepts(packet)) {
+                    iterator.remove();
+                    future = candidate;
+                    break;
+                }
+            }
+        }
+
+        if(future == null) {
+            return null;
+        }
+
+        if(future.isDone()) {
+            Log.d(LOG_TAG, "Late response (H" + Integer.toHexString(packet.getHeader()) + ") dropped");
+        } else {
+            future.complete(packet);
+        }
+
+        return future;
+    }
+
+    /**
+     * Times out the requests past their deadline and drops abandoned requests past their grace period.
+     * @param now The current time in elapsed realtime milliseconds
+     * @return The next time this should run again or 0 if there are no waiting requests
+     */
+    long expire(long now) {
+        LinkedList<ResponseFuture> expired = null;
+        long next = 0L;
+
+        synchronized (this) {
+            for(Entries entries : pending) {
+                if(entries == null || entries.isEmpty()) continue;
+
+                // drop abandoned requests from the head of the queue
+                while(!entries.isEmpty()) {
+                    ResponseFuture first = entries.getFirst();
+                    if(first.isDone() && first.getDeadline() + ABANDON_GRACE <= now) {
+                        entries.removeFirst();
+                    } else {
+                        break;
+                    }
+                }
+
+                for(ResponseFuture future : entries) {
+                    long deadline = future.getDeadline();
+                    if(!future.isDone()) {
+                        if(deadline <= now) {
+                            if(expired == null) expired = new LinkedList<ResponseFuture>();
+                            expired.add(future);
+                            deadline += ABANDON_GRACE;
+                        }
+                    } else {
+                        deadline += ABANDON_GRACE;
+                    }
+
+                    if(next == 0L || deadline < next) {
+                        next = deadline;
+                    }
+                }
+            }
+        }
+
+        if(expired != null) {
+            for(ResponseFuture future : expired) {
+                Log.e(LOG_TAG, "Request (H" + Integer.toHexString(future.getHeader()) + ") timed out");
+                future.expire();
+            }
+        }
+
+        return next;
+    }
+
+    /** Cancels every waiting request (their callbacks are notified with null). */
+    void cancelAll() {
+        LinkedList<ResponseFuture> waiting = new LinkedList<ResponseFuture>();
+
+        synchronized (this) {
+            for(Entries entries : pending) {
+                if(entries != null) {
+                    waiting.addAll(entries);
+                    entries.clear();
+                }
+            }
+        }
+
+        for(ResponseFuture future : waiting) {
+            future.cancel(false);
+        }
+    }
+
+    /** FIFO of requests with the same header. */
+    private static class Entries extends LinkedList<ResponseFuture> { }
+
+}
@@ -0,0 +1,125 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.os.SystemClock;
+
+/**
+ * Extrapolates the playback position of the remote player between its state reports.
+ * <p>
+ *     Each reported position is anchored to the local elapsed realtime it was valid at:
+ *     the receive time minus half of the smoothed round-trip time to the server
+ *     (the protocol carries no server timestamps, so the one-way delay is assumed
+ *     to be symmetric, like NTP does).
+ *     The rate of the remote playback compared to the local clock (the drift) is estimated
+ *     from the progress of the reports over a span of continuous playback;
+ *     a report far from the extrapolated position (a seek) starts a new span.
+ * </p>
+ */
+public class PlaybackClock {
+
+    /** The shortest span of continuous playback in milliseconds to estimate the drift from. */
+    private static final long MIN_DRIFT_SPAN = 2000L;
+    /** The largest accepted difference of the playback rate from the local clock. */
+    private static final double MAX_DRIFT = 0.05;
+    /** The largest difference in milliseconds between a report and the extrapolated position. */
+    private static final long MAX_JUMP = 1500L;
+    /** The weight of a new drift sample in the smoothed rate. */
+    private static final double RATE_GAIN = 0.25;
+
+    /** The duration of the video in milliseconds (0 if not known). */
+    private long duration = 0L;
+    /** True if a position was reported for the current playback. */
+    private boolean reported = false;
+    /** True if the player was paused at the last report. */
+    private boolean paused = false;
+
+    /** The last reported position in milliseconds. */
+    private long position = 0L;
+    /** The local elapsed realtime the last reported position was valid at. */
+    private long positionTime = 0L;
+
+    /** The reported position the current span of continuous playback started at. */
+    private long spanPosition = 0L;
+    /** The local elapsed realtime the current span of continuous playback started at. */
+    private long spanTime = 0L;
+
+    /** The smoothed rate of the remote playback compared to the local clock. */
+    private double rate = 1.0;
+
+    /** Starts extrapolating a new playback with the given duration in milliseconds. */
+    synchronized void start(long duration) {
+        this.duration = duration;
+        this.reported = false;
+        this.paused   = false;
+        this.rate     = 1.0;
+    }
+
+    /** Stops extrapolating when the playback ended. */
+    synchronized void stop() {
+        this.reported = false;
+    }
+
+    /**
+     * Records a position report of the remote player.
+     * @param position      The reported position in milliseconds
+     * @param paused        True if the player is paused
+     * @param receiveTime   The elapsed realtime the report was received at
+     * @param roundTripTime The smoothed round-trip time to the server in milliseconds (0 if not known)
+     */
+    synchronized void onReport(long position, boolean paused, long receiveTime, long roundTripTime) {
+        // the server sampled the position about half a round trip earlier
+        long validTime = receiveTime - roundTripTime / 2;
+
+        boolean continuous = reported && !paused && !this.paused &&
+                Math.abs(position - extrapolate(validTime)) <= MAX_JUMP;
+
+        if(continuous) {
+            long span = validTime - spanTime;
+            if(span >= MIN_DRIFT_SPAN) {
+                double sample = (double) (position - spanPosition) / span;
+                if(Math.abs(sample - 1.0) <= MAX_DRIFT) {
+                    rate += (sample - rate) * RATE_GAIN;
+                }
+            }
+        } else {
+            spanPosition = position;
+            spanTime     = validTime;
+        }
+
+        this.position     = position;
+        this.positionTime = validTime;
+        this.paused       = paused;
+        this.reported     = true;
+    }
+
+    /** Returns true if the remote player is playing (so the position is moving). */
+    public synchronized boolean isRunning() {
+        return reported && !paused;
+    }
+
+    /** Returns the estimated rate of the remote playback compared to the local clock. */
+    public synchronized double getRate() { return rate; }
+
+    /** Returns the estimated current position in milliseconds (0 if nothing was reported). */
+    public long getPosition() {
+        return getPosition(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Returns the estimated position at the given time in milliseconds.
+     * @param now The local elapsed realtime to extrapolate the position to
+     */
+    public synchronized long getPosition(long now) {
+        if(!reported) return 0L;
+        return extrapolate(now);
+    }
+
+    /** Extrapolates the last reported position to the given local time. */
+    private long extrapolate(long now) {
+        if(paused) return position;
+
+        long estimated = position + (long) ((now - positionTime) * rate);
+        if(estimated < 0L) return 0L;
+        return duration > 0L ? Math.min(estimated, duration) : estimated;
+    }
+
+}
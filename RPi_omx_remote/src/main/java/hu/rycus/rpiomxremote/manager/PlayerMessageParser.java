@@ -0,0 +1,183 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Single pass parsers of the player parameter and player information messages
+ * producing typed records instead of chains of regular expressions.
+ * <p>
+ *     Player parameters have the <code>d{duration}v{volume}|{filename}</code> format,
+ *     player information is either <code>SHOW${title}$S{season}E{episode}</code>
+ *     (both numbers optional) or <code>MOVIE${title}$Y{year}</code> (year optional);
+ *     the title ends at the last <code>$</code> sign.
+ * </p>
+ */
+class PlayerMessageParser {
+
+    /** The type tag of information about an episode of a show. */
+    private static final String TYPE_SHOW  = "SHOW";
+    /** The type tag of information about a movie. */
+    private static final String TYPE_MOVIE = "MOVIE";
+
+    /** Utility class, not to be instantiated. */
+    private PlayerMessageParser() { }
+
+    /**
+     * Parses the contents of a player parameters message.
+     * @return The parsed parameters or null if the contents are malformed
+     */
+    static Params parseParams(String message) {
+        if(message == null || message.length() < 1 || message.charAt(0) != 'd') return null;
+
+        int durationEnd = skipDigits(message, 1);
+        if(durationEnd == 1 || durationEnd >= message.length() || message.charAt(durationEnd) != 'v') return null;
+
+        int volumeStart = durationEnd + 1;
+        int volumeEnd = volumeStart;
+        if(volumeEnd < message.length() && message.charAt(volumeEnd) == '-') volumeEnd++;
+        volumeEnd = skipDigits(message, volumeEnd);
+        if(volumeEnd >= message.length() || message.charAt(volumeEnd) != '|') return null;
+
+        try {
+            long duration = Long.parseLong(message.substring(1, durationEnd));
+            long volume   = Long.parseLong(message.substring(volumeStart, volumeEnd));
+            return new Params(duration, volume, message.substring(volumeEnd + 1));
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the contents of a player information message.
+     * @return The parsed information (of {@link Info#TYPE_UNKNOWN} type if the server
+     *         could not guess the video) or null if the contents are malformed
+     */
+    static Info parseInfo(String message) {
+        if(message == null) return null;
+
+        int typeEnd = message.indexOf('$');
+        int titleEnd = message.lastIndexOf('$');
+        if(typeEnd < 0 || titleEnd == typeEnd) {
+            return new Info(Info.TYPE_UNKNOWN, null, Info.NONE, Info.NONE, Info.NONE);
+        }
+
+        String title = message.substring(typeEnd + 1, titleEnd);
+        int index = titleEnd + 1;
+
+        if(typeEnd == TYPE_SHOW.length() && message.startsWith(TYPE_SHOW)) {
+            int season = Info.NONE;
+            int episode = Info.NONE;
+
+            int end = taggedNumberEnd(message, index, 'S');
+            if(end > index) {
+                season = parseInt(message, index + 1, end);
+                if(season == Info.NONE) return null;
+                index = end;
+            }
+
+            end = taggedNumberEnd(message, index, 'E');
+            if(end > index) {
+                episode = parseInt(message, index + 1, end);
+                if(episode == Info.NONE) return null;
+            }
+
+            return new Info(Info.TYPE_SHOW, title, season, episode, Info.NONE);
+        } else if(typeEnd == TYPE_MOVIE.length() && message.startsWith(TYPE_MOVIE)) {
+            int year = Info.NONE;
+
+            int end = taggedNumberEnd(message, index, 'Y');
+            if(end > index) {
+                year = parseInt(message, index + 1, end);
+                if(year == Info.NONE) return null;
+            }
+
+            return new Info(Info.TYPE_MOVIE, title, Info.NONE, Info.NONE, year);
+        }
+
+        return new Info(Info.TYPE_UNKNOWN, null, Info.NONE, Info.NONE, Info.NONE);
+    }
+
+    /** Returns the index of the first non-digit character at or after the given index. */
+    private static int skipDigits(String message, int index) {
+        while(index < message.length()) {
+            char c = message.charAt(index);
+            if(c < '0' || c > '9') break;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the end of a number with the given tag letter at the given index
+     * or the index itself if there is no tagged number there.
+     */
+    private static int taggedNumberEnd(String message, int index, char tag) {
+        if(index >= message.length() || message.charAt(index) != tag) return index;
+
+        int end = skipDigits(message, index + 1);
+        return end > index + 1 ? end : index;
+    }
+
+    /** Parses the digits between the given indexes or returns {@link Info#NONE} if they overflow. */
+    private static int parseInt(String message, int start, int end) {
+        long value = 0L;
+        for(int index = start; index < end; index++) {
+            value = value * 10 + (message.charAt(index) - '0');
+            if(value > Integer.MAX_VALUE) return Info.NONE;
+        }
+        return (int) value;
+    }
+
+    /** Parsed contents of a player parameters message. */
+    static class Params {
+
+        /** The duration of the video in milliseconds. */
+        final long duration;
+        /** The initial volume of the playback. */
+        final long volume;
+        /** The filename of the started video. */
+        final String filename;
+
+        /** Constructor with the parsed values. */
+        Params(long duration, long volume, String filename) {
+            this.duration = duration;
+            this.volume = volume;
+            this.filename = filename;
+        }
+
+    }
+
+    /** Parsed contents of a player information message. */
+    static class Info {
+
+        /** Marker of numbers missing from the message. */
+        static final int NONE = -1;
+
+        /** Type of information the server could not guess anything for. */
+        static final int TYPE_UNKNOWN = 0;
+        /** Type of information about an episode of a show. */
+        static final int TYPE_SHOW    = 1;
+        /** Type of information about a movie. */
+        static final int TYPE_MOVIE   = 2;
+
+        /** The type of the information. */
+        final int type;
+        /** The guessed title of the show or movie (null for unknown type). */
+        final String title;
+        /** The season number of the episode or {@link #NONE}. */
+        final int season;
+        /** The episode number or {@link #NONE}. */
+        final int episode;
+        /** The year of the movie or {@link #NONE}. */
+        final int year;
+
+        /** Constructor with the parsed values. */
+        Info(int type, String title, int season, int episode, int year) {
+            this.type = type;
+            this.title = title;
+            this.season = season;
+            this.episode = episode;
+            this.year = year;
+        }
+
+    }
+
+}
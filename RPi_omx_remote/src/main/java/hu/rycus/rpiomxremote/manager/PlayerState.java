@@ -1,28 +1,26 @@
 package hu.rycus.rpiomxremote.manager;
 
-import android.content.Context;
-import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
-import android.support.v4.content.LocalBroadcastManager;
-import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
-
-import hu.rycus.rpiomxremote.RemoteService;
-import hu.rycus.rpiomxremote.ui.NotificationHelper;
-import hu.rycus.rpiomxremote.util.Intents;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Class containing informations about the current state of the remote player.
+ * Immutable snapshot of the current state of the remote player.
+ * <p>
+ *     Every change creates a new snapshot with a higher version number
+ *     which the remote manager publishes atomically, so readers on any thread
+ *     see either the old or the new state as a whole and consumers can skip
+ *     their work when the version did not change since they last processed it.
+ *     Each snapshot also knows which fields changed compared to the previous one
+ *     (see the {@code CHANGED_*} flags), so consumers can redo only the work
+ *     for those fields.
+ * </p>
  *
  * <br/>
  * Created by Viktor Adam on 11/14/13.
@@ -31,42 +29,120 @@ import hu.rycus.rpiomxremote.util.Intents;
  */
 public class PlayerState {
 
+    /** Flag of a changed playback position. */
+    public static final int CHANGED_POSITION   = 0x01;
+    /** Flag of a changed volume. */
+    public static final int CHANGED_VOLUME     = 0x01 << 1;
+    /** Flag of a changed paused state. */
+    public static final int CHANGED_PAUSED     = 0x01 << 2;
+    /** Flag of a changed title. */
+    public static final int CHANGED_TITLE      = 0x01 << 3;
+    /** Flag of a changed information (and extra information) text. */
+    public static final int CHANGED_INFO       = 0x01 << 4;
+    /** Flag of changed player properties. */
+    public static final int CHANGED_PROPERTIES = 0x01 << 5;
+    /** Flag of a changed poster. */
+    public static final int CHANGED_POSTER     = 0x01 << 6;
+    /** Flag of a new playback (with a new video file and duration). */
+    public static final int CHANGED_PLAYBACK   = 0x01 << 7;
+    /** Every change flag (the changes of the first snapshot of a playback). */
+    public static final int CHANGED_ALL        = 0xFF;
+
+    /** The source of the version numbers (shared by every playback so they never repeat). */
+    private static final AtomicLong VERSIONS = new AtomicLong(0L);
+
+    /** The version of this snapshot (higher for every newer snapshot). */
+    private final long version;
+    /** The version of the first snapshot of the playback this snapshot belongs to. */
+    private final long playback;
+    /** The flags of the fields changed compared to the previous snapshot. */
+    private final int changes;
+
     /** The filename of the started video. */
     private final String videofile;
     /** The title of the video. */
-    private String title;
+    private final String title;
     /** Information about the video. */
-    private String info = "";
+    private final String info;
     /** The duration of the video in milliseconds. */
-    private long duration;
+    private final long duration;
     /** The current playback position of the video in milliseconds. */
-    private long position;
+    private final long position;
     /** The current volume of the playback. */
-    private long volume;
+    private final long volume;
     /** True if the video is currently paused, false if the video is playing. */
-    private boolean paused = false;
-    /** Collection of player properties with their values as Strings. */
-    private final Map<PlayerProperty, String> properties = new HashMap<PlayerProperty, String>();
+    private final boolean paused;
+    /** Unmodifiable collection of player properties with their values as Strings. */
+    private final Map<PlayerProperty, String> properties;
 
     /** The poster bitmap that belongs to the current video. */
-    private BitmapDrawable poster = null;
+    private final BitmapDrawable poster;
 
     /**
-     * Constructor with basic parameters.
+     * Constructor of the first snapshot of a playback with basic parameters.
      * @param resources Resources object to get strings from
      * @param videofile The filename of the started video
      * @param duration  The duration of the video in milliseconds
      * @param volume    The initial volume of the playback
      */
     public PlayerState(Resources resources, String videofile, long duration, long volume) {
+        this.version    = VERSIONS.incrementAndGet();
+        this.playback   = version;
         this.videofile  = videofile;
         this.title      = videofile;
+        this.info       = "";
         this.duration   = duration;
+        this.position   = 0L;
         this.volume     = volume;
+        this.paused     = false;
+        this.properties = Collections.emptyMap();
+        this.poster     = null;
+        this.changes    = CHANGED_ALL;
 
         PlayerProperty.initialize(resources);
     }
 
+    /** Constructor of a newer snapshot of the same playback with the given values. */
+    private PlayerState(PlayerState previous, String title, String info,
+                        long position, long volume, boolean paused,
+                        Map<PlayerProperty, String> properties, BitmapDrawable poster) {
+        this.version    = VERSIONS.incrementAndGet();
+        this.playback   = previous.playback;
+        this.videofile  = previous.videofile;
+        this.title      = title;
+        this.info       = info;
+        this.duration   = previous.duration;
+        this.position   = position;
+        this.volume     = volume;
+        this.paused     = paused;
+        this.properties = properties;
+        this.poster     = poster;
+        this.changes    = compare(previous);
+    }
+
+    /** Returns the version of this snapshot (higher for every newer snapshot). */
+    public long getVersion() { return version; }
+
+    /** Returns the flags of the fields changed compared to the previous snapshot. */
+    public int getChanges() { return changes; }
+
+    /**
+     * Returns the flags of the fields changed since an older snapshot.
+     * @param older The snapshot processed last by the caller (may be null)
+     * @return The changed fields ({@link #CHANGED_ALL} if the older snapshot
+     *          is missing or belongs to another playback)
+     */
+    public int changesSince(PlayerState older) {
+        if(older == this) return 0;
+        if(!isSamePlayback(older)) return CHANGED_ALL;
+        return compare(older);
+    }
+
+    /** Returns true if the given snapshot belongs to the same playback as this one. */
+    public boolean isSamePlayback(PlayerState other) {
+        return other != null && other.playback == playback;
+    }
+
     /** Returns the filename of the started video. */
     public String getVideofile() { return videofile; }
 
@@ -83,9 +159,6 @@ public class PlayerState {
         }
     }
 
-    /** Sets the title of the current player. */
-    public void setTitle(String title) { this.title = title; }
-
     /**
      * Returns the best guessed information for the player.
      * @return If the video is an episode of a show then the episode's title
@@ -114,136 +187,105 @@ public class PlayerState {
         }
     }
 
-    /**
-     * Sets basic information about the video.
-     * @param info If the video if an episode of a show then this is either the title
-     *             of the episode or the season and episode number of it
-     */
-    public void setInfo(String info) { this.info = info; }
-
     /** Returns the duration of the video in milliseconds. */
     public long getDuration() { return duration; }
-    /** Sets the duration of the video in milliseconds. */
-    public void setDuration(long duration) { this.duration = duration; }
 
     /** Returns the current playback position of the video in milliseconds. */
     public long getPosition() { return position; }
-    /** Sets the current playback position of the video in milliseconds. */
-    public void setPosition(long position) { this.position = position; }
 
     /** Returns the current volume of the playback. */
     public long getVolume() { return volume; }
-    /** Sets the current volume of the playback. */
-    public void setVolume(long volume) { this.volume = volume; }
 
     /** Returns true if the video is currently paused, false if the video is playing. */
     public boolean isPaused() { return paused; }
-    /** Set this true if the video is currently paused, false if the video is playing. */
-    public void setPaused(boolean paused) { this.paused = paused; }
 
-    /** Returns a collection of player properties with their values as Strings. */
+    /** Returns an unmodifiable collection of player properties with their values as Strings. */
     public Map<PlayerProperty, String> getProperties() { return properties; }
 
     /** Returns the best guessed poster for the player when found any. */
     public BitmapDrawable getPoster() { return poster; }
 
+    /** Returns a newer snapshot with the given playback position, volume and paused state. */
+    PlayerState withPlayback(long position, long volume, boolean paused) {
+        return new PlayerState(this, title, info, position, volume, paused, properties, poster);
+    }
+
     /**
-     * Sets the bitmap as poster for the player.
-     * Also notifies the user and broadcasts modified player state.
-     * @param service
-     * @param poster
+     * Returns a newer snapshot with basic information about the video.
+     * @param title           The guessed title of the video
+     * @param info            If the video if an episode of a show then this is either the title
+     *                        of the episode or the season and episode number of it
+     * @param addedProperties The player properties to add to the current ones
      */
-    private void setPoster(RemoteService service, BitmapDrawable poster) {
-        this.poster = poster;
-
-        Intent intent = new Intent(Intents.ACTION_CALLBACK);
-        intent.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_EXTRA);
-        LocalBroadcastManager.getInstance(service).sendBroadcast(intent);
-
-        NotificationHelper.postNotification(service, this);
+    PlayerState withInfo(String title, String info, Map<PlayerProperty, String> addedProperties) {
+        return new PlayerState(this, title, info, position, volume, paused,
+                merge(properties, addedProperties), poster);
     }
 
     /**
-     * Parses extra information for player properties.
-     * @param data     The data received from the server
-     * @param executor The executor to download poster images when found any
-     * @param service  The remote service requested parsing the extras
+     * Returns a newer snapshot with the extra information parsed for player properties.
+     * @param data The data received from the server
      */
-    public void parseExtras(String data, Executor executor, final RemoteService service) {
-        if(data != null) {
-            boolean hasPoster = false;
-
-            for(String block : data.split("\\|")) {
-                if(!block.matches("[A-Z]{2}:.*")) continue;
-
-                String id    = block.substring(0, 2);
-                String value = block.substring(3);
-
-                PlayerProperty property = PlayerProperty.get(id);
-                if(property != null) {
-                    properties.put(property, value);
-                }
-
-                if(!hasPoster) {
-                    if(PlayerProperty.listPosters().contains(property)) {
-                        hasPoster = true;
-                    }
-                }
-            }
+    PlayerState withExtras(String data) {
+        Map<PlayerProperty, String> addedProperties = new HashMap<PlayerProperty, String>();
 
-            Intent intent = new Intent(Intents.ACTION_CALLBACK);
-            intent.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_EXTRA);
-            LocalBroadcastManager.getInstance(service).sendBroadcast(intent);
-
-            if(hasPoster) {
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        for(PlayerProperty posterProp : PlayerProperty.listPosters()) {
-                            String posterUrl = properties.get(posterProp);
-                            if(posterUrl != null) {
-                                if(loadImage(posterUrl, service)) break;
-                            }
-                        }
-                    }
-                });
+        for(String block : data.split("\\|")) {
+            if(!block.matches("[A-Z]{2}:.*")) continue;
+
+            String id    = block.substring(0, 2);
+            String value = block.substring(3);
+
+            PlayerProperty property = PlayerProperty.get(id);
+            if(property != null) {
+                addedProperties.put(property, value);
             }
         }
+
+        return new PlayerState(this, title, info, position, volume, paused,
+                merge(properties, addedProperties), poster);
     }
 
-    /**
-     * Load a poster image from the given URL.
-     * @param posterUrl The URL location of the poster image
-     * @param service   The remote service requested parsing the extras
-     * @return true if the poster was downloaded
-     */
-    private boolean loadImage(String posterUrl, RemoteService service) {
-        try {
-            URL url = new URL(posterUrl);
-            URLConnection connection = url.openConnection();
-            connection.setReadTimeout(30000); // 30 sec
-
-            int contentLength = connection.getContentLength();
-            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(5 * 1024, contentLength)); // 5kB
-
-            InputStream input = connection.getInputStream();
-
-            Bitmap bitmap = null;
-            try {
-                bitmap = BitmapFactory.decodeStream(input);
-            } finally {
-                input.close();
-            }
+    /** Returns a newer snapshot with the given bitmap as poster for the player. */
+    PlayerState withPoster(BitmapDrawable poster) {
+        return new PlayerState(this, title, info, position, volume, paused, properties, poster);
+    }
 
-            if(bitmap != null) {
-                setPoster(service, new BitmapDrawable(service.getResources(), bitmap));
-                return true;
+    /** Returns the URLs of the poster images found in the player properties in order of preference. */
+    List<String> listPosterUrls() {
+        List<String> urls = new LinkedList<String>();
+        for(PlayerProperty posterProp : PlayerProperty.listPosters()) {
+            String posterUrl = properties.get(posterProp);
+            if(posterUrl != null) {
+                urls.add(posterUrl);
             }
-        } catch(Exception ex) {
-            Log.d("PS", "Failed to load poster from " + posterUrl, ex);
         }
+        return urls;
+    }
+
+    /** Returns the flags of the fields that differ in the given snapshot of the same playback. */
+    private int compare(PlayerState other) {
+        int flags = 0;
+        if(position != other.position)      flags |= CHANGED_POSITION;
+        if(volume != other.volume)          flags |= CHANGED_VOLUME;
+        if(paused != other.paused)          flags |= CHANGED_PAUSED;
+        if(!title.equals(other.title))      flags |= CHANGED_TITLE;
+        if(!info.equals(other.info))        flags |= CHANGED_INFO;
+        if(!properties.equals(other.properties)) {
+            // the title and the info texts are overridden by properties
+            flags |= CHANGED_PROPERTIES | CHANGED_TITLE | CHANGED_INFO;
+        }
+        if(poster != other.poster)          flags |= CHANGED_POSTER;
+        return flags;
+    }
+
+    /** Returns an unmodifiable union of the given property collections (the added values win). */
+    private static Map<PlayerProperty, String> merge(Map<PlayerProperty, String> current,
+                                                     Map<PlayerProperty, String> added) {
+        if(added.isEmpty()) return current;
 
-        return false;
+        Map<PlayerProperty, String> merged = new HashMap<PlayerProperty, String>(current);
+        merged.putAll(added);
+        return Collections.unmodifiableMap(merged);
     }
 
 }
@@ -0,0 +1,109 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Decoder of player state messages in the <code>p{position}v{volume}{P|R}</code> format
+ * (for example <code>p125000v-600P</code>).
+ * The raw contents are scanned once without creating strings or matchers,
+ * the decoded values are kept in the fields of the decoder instance,
+ * so an instance should only be used from one thread.
+ */
+class PlayerStateDecoder {
+
+    /** The playback position in milliseconds of the last decoded message. */
+    private long position;
+    /** The volume of the last decoded message. */
+    private long volume;
+    /** True if the player was paused according to the last decoded message. */
+    private boolean paused;
+
+    /** The scan position in the buffer being decoded. */
+    private int index;
+    /** The value of the last scanned number. */
+    private long scanned;
+
+    /**
+     * Decodes the contents of a player state packet.
+     * @return true if the contents were valid and the fields are updated
+     */
+    boolean decode(Packet packet) {
+        byte[] buffer = packet.getBuffer();
+        if(buffer != null) {
+            return decode(buffer, packet.getOffset(), packet.getLength());
+        }
+
+        String data = packet.getData();
+        if(data == null) return false;
+
+        byte[] bytes = data.getBytes();
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes player state contents from a raw buffer.
+     * @return true if the contents were valid and the fields are updated
+     */
+    boolean decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        index = offset;
+
+        if(index >= end || buffer[index++] != 'p') return false;
+        if(!scanNumber(buffer, end, false)) return false;
+        long newPosition = scanned;
+
+        if(index >= end || buffer[index++] != 'v') return false;
+        boolean negative = index < end && buffer[index] == '-';
+        if(negative) index++;
+        if(!scanNumber(buffer, end, negative)) return false;
+        long newVolume = scanned;
+
+        if(index != end - 1) return false;
+        byte state = buffer[index];
+        if(state != 'P' && state != 'R') return false;
+
+        position = newPosition;
+        volume   = newVolume;
+        paused   = state == 'P';
+        return true;
+    }
+
+    /**
+     * Scans the decimal digits at the current position into {@link #scanned}
+     * accepting the same values as {@link Long#parseLong(String)}.
+     * @param negative True if the number had a minus sign
+     * @return true if there were digits and the value fits into a long
+     */
+    private boolean scanNumber(byte[] buffer, int end, boolean negative) {
+        // accumulated negatively (like Long.parseLong) so Long.MIN_VALUE fits as well
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long value = 0L;
+        int start = index;
+
+        while(index < end) {
+            int digit = buffer[index] - '0';
+            if(digit < 0 || digit > 9) break;
+
+            if(value < multiplyLimit) return false;
+            value *= 10;
+            if(value < limit + digit) return false;
+            value -= digit;
+
+            index++;
+        }
+
+        if(index == start) return false;
+
+        scanned = negative ? value : -value;
+        return true;
+    }
+
+    /** Returns the playback position in milliseconds of the last decoded message. */
+    long getPosition() { return position; }
+
+    /** Returns the volume of the last decoded message. */
+    long getVolume() { return volume; }
+
+    /** Returns true if the player was paused according to the last decoded message. */
+    boolean isPaused() { return paused; }
+
+}
@@ -0,0 +1,194 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import hu.rycus.rpiomxremote.util.Header;
+
+/**
+ * Reliability layer for critical messages on top of the datagram protocol.
+ * <p>
+ *     Reliable messages carry a 16 bit sequence number after their flags byte
+ *     and are sent again with an exponentially growing timeout
+ *     until the server acknowledges them (or until they are given up).
+ *     The sequence numbers of reliable messages received from the server
+ *     are checked against a sliding window so the retransmitted copies
+ *     are acknowledged again but processed only once.
+ * </p>
+ * <p>
+ *     This is only used with servers that advertise support for it in their login response.
+ * </p>
+ */
+class ReliableChannel {
+
+    /** The maximum number of times a message is sent again. */
+    private static final int MAX_RETRANSMITS = 5;
+    /** The upper bound of the retransmission timeout in milliseconds. */
+    private static final long MAX_RTO = 8000L;
+    /** The number of sequence numbers tracked behind the highest received one. */
+    private static final int REPLAY_WINDOW = 64;
+
+    /** The sequence number of the next outgoing reliable message. */
+    private int nextSequence = 0;
+    /** The unacknowledged messages by sequence number in order of sending. */
+    private final Map<Integer, Outgoing> pending = new LinkedHashMap<Integer, Outgoing>();
+
+    /** The highest sequence number received from the server (-1 if nothing was received). */
+    private int highestReceived = -1;
+    /** Bitmap of the received sequence numbers below the highest one (bit N means highest - N). */
+    private long receivedMask = 0L;
+
+    /** Returns true if messages with the given header should be delivered reliably. */
+    static boolean isCritical(int header) {
+        return header == Header.MSG_A_START_VIDEO ||
+               header == Header.MSG_A_STOP_VIDEO ||
+               header == Header.MSG_A_SET_SETTING;
+    }
+
+    /**
+     * Registers a new outgoing message and assigns its sequence number.
+     * @param header The header of the message
+     * @param data   The contents of the message
+     * @param flags  The flags of the message (without the reliable flag)
+     * @param now    The current time in elapsed realtime milliseconds
+     * @param rto    The current retransmission timeout in milliseconds
+     * @return The registered message
+     */
+    synchronized Outgoing register(int header, byte[] data, int flags, long now, long rto) {
+        int sequence = nextSequence;
+        nextSequence = (nextSequence + 1) & 0xFFFF;
+
+        Outgoing message = new Outgoing(sequence, header, data, flags, now, rto);
+        pending.put(sequence, message);
+        return message;
+    }
+
+    /**
+     * Removes the acknowledged message.
+     * @return The acknowledged message or null if it is not (or no longer) waiting
+     */
+    synchronized Outgoing acknowledge(int sequence) {
+        return pending.remove(sequence);
+    }
+
+    /**
+     * Collects the messages whose timeout expired and doubles their timeout;
+     * messages sent too many times are given up and removed.
+     * @param now          The current time in elapsed realtime milliseconds
+     * @param retransmit   The list to collect the messages to send again into
+     * @param abandoned    The list to collect the given up messages into
+     * @return The time of the next timeout or 0 if nothing is waiting
+     */
+    synchronized long collectDue(long now, List<Outgoing> retransmit, List<Outgoing> abandoned) {
+        long next = 0L;
+
+        for(Iterator<Outgoing> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+            Outgoing message = iterator.next();
+
+            if(message.deadline <= now) {
+                if(message.retransmits >= MAX_RETRANSMITS) {
+                    iterator.remove();
+                    abandoned.add(message);
+                    continue;
+                }
+
+                message.retransmits++;
+                message.rto = Math.min(MAX_RTO, message.rto * 2);
+                message.deadline = now + message.rto;
+                retransmit.add(message);
+            }
+
+            if(next == 0L || message.deadline < next) {
+                next = message.deadline;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Checks a received sequence number against the replay window.
+     * @return true if the message was not received before and should be processed
+     */
+    synchronized boolean accept(int sequence) {
+        if(highestReceived < 0) {
+            highestReceived = sequence;
+            receivedMask = 1L;
+            return true;
+        }
+
+        // distance on the 16 bit circle, positive if the sequence is newer
+        int distance = (short) (sequence - highestReceived);
+
+        if(distance > 0) {
+            receivedMask = distance >= REPLAY_WINDOW ? 0L : receivedMask << distance;
+            receivedMask |= 1L;
+            highestReceived = sequence;
+            return true;
+        }
+
+        int age = -distance;
+        if(age >= REPLAY_WINDOW) {
+            // too old to tell, it is safer to drop it
+            return false;
+        }
+
+        long bit = 1L << age;
+        if((receivedMask & bit) != 0L) {
+            return false;
+        }
+
+        receivedMask |= bit;
+        return true;
+    }
+
+    /**
+     * Removes every waiting message and clears the replay window (when the session changes).
+     * @return The messages that were waiting for acknowledgement in order of sending
+     */
+    synchronized List<Outgoing> reset() {
+        List<Outgoing> dropped = new ArrayList<Outgoing>(pending.values());
+        pending.clear();
+        highestReceived = -1;
+        receivedMask = 0L;
+        return dropped;
+    }
+
+    /** An outgoing reliable message waiting for acknowledgement. */
+    static class Outgoing {
+
+        /** The sequence number of the message. */
+        final int sequence;
+        /** The header of the message. */
+        final int header;
+        /** The contents of the message. */
+        final byte[] data;
+        /** The flags of the message (without the reliable flag). */
+        final int flags;
+        /** The time the message was first sent. */
+        final long sentTime;
+
+        /** The current retransmission timeout (guarded by the channel). */
+        long rto;
+        /** The time the message is sent again if not acknowledged (guarded by the channel). */
+        long deadline;
+        /** The number of times the message was sent again (guarded by the channel). */
+        int retransmits = 0;
+
+        /** Constructor with the message parameters. */
+        Outgoing(int sequence, int header, byte[] data, int flags, long sentTime, long rto) {
+            this.sequence = sequence;
+            this.header = header;
+            this.data = data;
+            this.flags = flags;
+            this.sentTime = sentTime;
+            this.rto = rto;
+            this.deadline = sentTime + rto;
+        }
+
+    }
+
+}
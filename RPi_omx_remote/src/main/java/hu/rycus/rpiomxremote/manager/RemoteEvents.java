@@ -0,0 +1,201 @@
+package hu.rycus.rpiomxremote.manager;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import hu.rycus.rpiomxremote.blocks.FileList;
+import hu.rycus.rpiomxremote.blocks.Setting;
+
+/**
+ * Delivers the events of the remote manager to the registered listeners on the main thread.
+ * <p>
+ *     Events are posted as pooled handler messages and delivered by iterating over
+ *     an array of the listeners, so delivery creates no objects;
+ *     the listener array is replaced when a listener is added or removed.
+ *     Player state, information and extras events waiting for delivery
+ *     deliver the newest snapshot posted for their kind until then,
+ *     keeping their place among the other events (so a state update
+ *     is never delivered after a later exit event, for example).
+ * </p>
+ */
+public class RemoteEvents implements Handler.Callback {
+
+    /** Message code of connection state events (arg1 is 1 if connected). */
+    private static final int WHAT_CONNECTION     = 1;
+    /** Message code of player started events (obj is the player state). */
+    private static final int WHAT_PLAYER_STARTED = 2;
+    /** Message code of player state events (the player state is kept until delivery). */
+    private static final int WHAT_PLAYER_STATE   = 3;
+    /** Message code of player information events (the player state is kept until delivery). */
+    private static final int WHAT_PLAYER_INFO    = 4;
+    /** Message code of player extras events (the player state is kept until delivery). */
+    private static final int WHAT_PLAYER_EXTRAS  = 5;
+    /** Message code of player exit events. */
+    private static final int WHAT_PLAYER_EXITED  = 6;
+    /** Message code of file list events (obj is the file list). */
+    private static final int WHAT_FILE_LIST      = 7;
+    /** Message code of settings list events (obj is the settings array). */
+    private static final int WHAT_SETTINGS_LIST  = 8;
+    /** Message code of error events (obj is the error message). */
+    private static final int WHAT_ERROR          = 9;
+
+    /** Empty listener array. */
+    private static final RemoteListener[] NO_LISTENERS = new RemoteListener[0];
+
+    /** Handler delivering the events on the main thread. */
+    private final Handler handler = new Handler(Looper.getMainLooper(), this);
+
+    /** The snapshots of the coalesced events waiting for delivery by message code (null if none). */
+    private final PlayerState[] coalesced = new PlayerState[WHAT_ERROR + 1];
+
+    /** The registered listeners (replaced on every change, never modified). */
+    private volatile RemoteListener[] listeners = NO_LISTENERS;
+
+    /** Registers a listener (if it is not registered yet). */
+    public synchronized void addListener(RemoteListener listener) {
+        RemoteListener[] current = listeners;
+        for(RemoteListener registered : current) {
+            if(registered == listener) return;
+        }
+
+        RemoteListener[] extended = new RemoteListener[current.length + 1];
+        System.arraycopy(current, 0, extended, 0, current.length);
+        extended[current.length] = listener;
+        listeners = extended;
+    }
+
+    /** Unregisters a listener (if it is registered). */
+    public synchronized void removeListener(RemoteListener listener) {
+        RemoteListener[] current = listeners;
+        for(int index = 0; index < current.length; index++) {
+            if(current[index] != listener) continue;
+
+            RemoteListener[] reduced = new RemoteListener[current.length - 1];
+            System.arraycopy(current, 0, reduced, 0, index);
+            System.arraycopy(current, index + 1, reduced, index, current.length - index - 1);
+            listeners = reduced;
+            return;
+        }
+    }
+
+    /** Posts a connection state event. */
+    void connectionChanged(boolean connected) {
+        handler.obtainMessage(WHAT_CONNECTION, connected ? 1 : 0, 0).sendToTarget();
+    }
+
+    /** Posts a player started event. */
+    void playerStarted(PlayerState state) {
+        handler.obtainMessage(WHAT_PLAYER_STARTED, state).sendToTarget();
+    }
+
+    /** Posts a player state event (or updates the snapshot of the waiting one). */
+    void playerStateChanged(PlayerState state) {
+        postCoalesced(WHAT_PLAYER_STATE, state);
+    }
+
+    /** Posts a player information event (or updates the snapshot of the waiting one). */
+    void playerInfoChanged(PlayerState state) {
+        postCoalesced(WHAT_PLAYER_INFO, state);
+    }
+
+    /** Posts a player extras event (or updates the snapshot of the waiting one). */
+    void playerExtrasChanged(PlayerState state) {
+        postCoalesced(WHAT_PLAYER_EXTRAS, state);
+    }
+
+    /** Posts a player exit event. */
+    void playerExited() {
+        handler.sendEmptyMessage(WHAT_PLAYER_EXITED);
+    }
+
+    /** Posts a file list event (with null if the files could not be listed). */
+    void fileList(FileList files) {
+        handler.obtainMessage(WHAT_FILE_LIST, files).sendToTarget();
+    }
+
+    /** Posts a settings list event. */
+    void settingsList(Setting[] settings) {
+        handler.obtainMessage(WHAT_SETTINGS_LIST, settings).sendToTarget();
+    }
+
+    /** Posts an error event. */
+    void error(String error) {
+        handler.obtainMessage(WHAT_ERROR, error).sendToTarget();
+    }
+
+    /** Posts an event of the player state unless one of the same kind is waiting for delivery. */
+    private void postCoalesced(int what, PlayerState state) {
+        synchronized (coalesced) {
+            boolean waiting = coalesced[what] != null;
+
+            // the waiting event delivers the latest snapshot, listeners need only that one
+            coalesced[what] = state;
+
+            if(!waiting) {
+                handler.sendEmptyMessage(what);
+            }
+        }
+    }
+
+    /** Returns the latest snapshot of a coalesced event being delivered and clears it. */
+    private PlayerState takeCoalesced(int what) {
+        synchronized (coalesced) {
+            PlayerState state = coalesced[what];
+            coalesced[what] = null;
+            return state;
+        }
+    }
+
+    /**
+     * Delivers an event to every registered listener.
+     * @see android.os.Handler.Callback#handleMessage(android.os.Message)
+     */
+    @Override
+    public boolean handleMessage(Message message) {
+        Object payload = message.obj;
+        if(message.what == WHAT_PLAYER_STATE || message.what == WHAT_PLAYER_INFO ||
+                message.what == WHAT_PLAYER_EXTRAS) {
+            payload = takeCoalesced(message.what);
+        }
+
+        RemoteListener[] current = listeners;
+
+        for(int index = 0; index < current.length; index++) {
+            RemoteListener listener = current[index];
+
+            switch (message.what) {
+                case WHAT_CONNECTION:
+                    listener.onConnectionChanged(message.arg1 != 0);
+                    break;
+                case WHAT_PLAYER_STARTED:
+                    listener.onPlayerStarted((PlayerState) payload);
+                    break;
+                case WHAT_PLAYER_STATE:
+                    listener.onPlayerStateChanged((PlayerState) payload);
+                    break;
+                case WHAT_PLAYER_INFO:
+                    listener.onPlayerInfoChanged((PlayerState) payload);
+                    break;
+                case WHAT_PLAYER_EXTRAS:
+                    listener.onPlayerExtrasChanged((PlayerState) payload);
+                    break;
+                case WHAT_PLAYER_EXITED:
+                    listener.onPlayerExited();
+                    break;
+                case WHAT_FILE_LIST:
+                    listener.onFileList((FileList) payload);
+                    break;
+                case WHAT_SETTINGS_LIST:
+                    listener.onSettingsList((Setting[]) payload);
+                    break;
+                case WHAT_ERROR:
+                    listener.onError((String) payload);
+                    break;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,46 @@
+package hu.rycus.rpiomxremote.manager;
+
+import hu.rycus.rpiomxremote.blocks.FileList;
+import hu.rycus.rpiomxremote.blocks.Setting;
+
+/**
+ * Listener of the events of the remote manager
+ * (registered on the remote service, called on the main thread).
+ * <p>
+ *     Player state, information and extras events are coalesced:
+ *     if another one arrives before the previous was delivered
+ *     only one call is made with the current player state.
+ *     Listeners can find the changed fields with {@link PlayerState#changesSince(PlayerState)}
+ *     called with the snapshot they processed last.
+ * </p>
+ */
+public interface RemoteListener {
+
+    /** Called when the connection to the server is established or lost. */
+    void onConnectionChanged(boolean connected);
+
+    /** Called when a video started playing on the server (or playback was found after connecting). */
+    void onPlayerStarted(PlayerState state);
+
+    /** Called when the playback position, the volume or the paused state changed. */
+    void onPlayerStateChanged(PlayerState state);
+
+    /** Called when the server guessed the title and basic information of the video. */
+    void onPlayerInfoChanged(PlayerState state);
+
+    /** Called when extra (TVDB) information or a poster of the video arrived. */
+    void onPlayerExtrasChanged(PlayerState state);
+
+    /** Called when the remote player exited. */
+    void onPlayerExited();
+
+    /** Called when a requested file list arrived (null if it could not be listed). */
+    void onFileList(FileList files);
+
+    /** Called when the requested list of the remote settings arrived. */
+    void onSettingsList(Setting[] settings);
+
+    /** Called when a request or a message of the server failed. */
+    void onError(String error);
+
+}
@@ -0,0 +1,48 @@
+package hu.rycus.rpiomxremote.manager;
+
+import hu.rycus.rpiomxremote.blocks.FileList;
+import hu.rycus.rpiomxremote.blocks.Setting;
+
+/**
+ * Listener of the remote manager events with empty implementations,
+ * to be extended by listeners interested in a few events only.
+ */
+public abstract class RemoteListenerAdapter implements RemoteListener {
+
+    /** @see RemoteListener#onConnectionChanged(boolean) */
+    @Override
+    public void onConnectionChanged(boolean connected) { }
+
+    /** @see RemoteListener#onPlayerStarted(PlayerState) */
+    @Override
+    public void onPlayerStarted(PlayerState state) { }
+
+    /** @see RemoteListener#onPlayerStateChanged(PlayerState) */
+    @Override
+    public void onPlayerStateChanged(PlayerState state) { }
+
+    /** @see RemoteListener#onPlayerInfoChanged(PlayerState) */
+    @Override
+    public void onPlayerInfoChanged(PlayerState state) { }
+
+    /** @see RemoteListener#onPlayerExtrasChanged(PlayerState) */
+    @Override
+    public void onPlayerExtrasChanged(PlayerState state) { }
+
+    /** @see RemoteListener#onPlayerExited() */
+    @Override
+    public void onPlayerExited() { }
+
+    /** @see RemoteListener#onFileList(hu.rycus.rpiomxremote.blocks.FileList) */
+    @Override
+    public void onFileList(FileList files) { }
+
+    /** @see RemoteListener#onSettingsList(hu.rycus.rpiomxremote.blocks.Setting[]) */
+    @Override
+    public void onSettingsList(Setting[] settings) { }
+
+    /** @see RemoteListener#onError(String) */
+    @Override
+    public void onError(String error) { }
+
+}
@@ -1,25 +1,29 @@
 package hu.rycus.rpiomxremote.manager;
 
-import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import hu.rycus.rpiomxremote.RemoteService;
 import hu.rycus.rpiomxremote.blocks.FileList;
 import hu.rycus.rpiomxremote.blocks.Setting;
 import hu.rycus.rpiomxremote.ui.NotificationHelper;
 import hu.rycus.rpiomxremote.util.Header;
-import hu.rycus.rpiomxremote.util.Intents;
 
 /**
  * Manager object responsible for controlling the remote server and handling responses from it.
@@ -37,25 +41,58 @@ public class RemoteManager extends Thread {
     /** Tag for logcat. */
     private static final String LOG_TAG = "RPiOMX|RM";
 
+    /** Time in milliseconds to wait for the response of a request. */
+    private static final long REQUEST_TIMEOUT = 15000L;
+
+    /** The player state changes displayed on the notification. */
+    private static final int NOTIFIED_CHANGES =
+            PlayerState.CHANGED_PAUSED | PlayerState.CHANGED_TITLE | PlayerState.CHANGED_INFO |
+            PlayerState.CHANGED_PROPERTIES | PlayerState.CHANGED_POSTER;
+
     /** The remote service that created this manager. */
     private final RemoteService remoteService;
+    /** Delivers the events of this manager to the listeners registered on the service. */
+    private final RemoteEvents events;
 
     /** The network handler used for low-level communication with the server. */
-    private NetworkHandler handler;
+    private volatile NetworkHandler handler;
 
-    /** The current player state if any. */
-    private PlayerState playerState;
+    /**
+     * The current player state snapshot if any
+     * (replaced on the dispatcher thread only, read from any thread).
+     */
+    private final AtomicReference<PlayerState> playerState = new AtomicReference<PlayerState>();
 
-    /** Queue for commands to send to the server. */
-    private final LinkedBlockingQueue<Command> queue = new LinkedBlockingQueue<Command>();
+    /** Queue for commands to send to the server (transport controls take precedence). */
+    private final CommandQueue queue = new CommandQueue();
 
     /** Executor for various background tasks (like downloading posters). */
     private final ExecutorService executor;
 
+    /** The latency histograms of the exchanges with the server. */
+    private final LatencyStats latencyStats = new LatencyStats();
+    /** Extrapolates the playback position of the remote player between its state reports. */
+    private final PlaybackClock playbackClock = new PlaybackClock();
+    /** Decoder of the player state messages (used on the dispatcher thread only). */
+    private final PlayerStateDecoder stateDecoder = new PlayerStateDecoder();
+    /** Runs the handlers of the messages not sent as responses of requests on its own thread. */
+    private final PacketDispatcher dispatcher = new PacketDispatcher(latencyStats);
+
+    /** Storage of the last working server endpoint. */
+    private final EndpointStore endpointStore;
+    /** The name of the Wi-Fi network the manager started on (null if not known). */
+    private volatile String ssid;
+
+    /** Time in milliseconds of silence after the connection is considered lost. */
+    private volatile long latencyBudget = KeepaliveScheduler.DEFAULT_LATENCY_BUDGET;
+
     /** True until this manager instance is enabled. */
     private boolean enabled = true;
-    /** True if this manager is connected and has an active session to the server. */
-    private boolean connected = false;
+    /**
+     * True if this manager is connected and has an active session to the server
+     * (written by the network and the dispatcher threads, read from any thread).
+     */
+    private volatile boolean connected = false;
 
     /**
      * Private constructor initiating and starting the manager.
@@ -64,6 +101,8 @@ public class RemoteManager extends Thread {
     private RemoteManager(RemoteService service) {
         super("RemoteManager");
         this.remoteService = service;
+        this.events = service.getEvents();
+        this.endpointStore = new EndpointStore(service);
         this.executor = Executors.newSingleThreadExecutor();
         this.start();
     }
@@ -86,24 +125,25 @@ public class RemoteManager extends Thread {
     }
 
     /**
-     * This code instantiates a low-level network handler, logs in then sends commands
-     * to the remote server or a keep-alive message if no commands were enqueued.
+     * This code instantiates a low-level network handler, logs in then sends
+     * the enqueued commands to the remote server.
      *
      * @see Runnable#run()
      */
     @Override
     public void run() {
-        Set<Integer> asynchHeaders = new HashSet<Integer>(Arrays.asList(
-                Header.MSG_A_KEEPALIVE,
-                Header.MSG_A_START_VIDEO,
-                Header.MSG_A_STOP_VIDEO,
-                Header.MSG_A_PLAYER_STATE,
-                Header.MSG_A_PLAYER_PARAMS,
-                Header.MSG_A_PLAYER_INFO,
-                Header.MSG_A_PLAYER_EXTRA
-                ));
-
-        handler = new NetworkHandler(this, asynchHeaders);
+        registerHandlers();
+        dispatcher.start();
+
+        handler = new NetworkHandler(this, dispatcher);
+        handler.setLatencyBudget(latencyBudget);
+
+        ssid = endpointStore.getCurrentSsid();
+        EndpointStore.Endpoint endpoint = endpointStore.load(ssid);
+        if(endpoint != null) {
+            Log.e(LOG_TAG, "Known endpoint on " + ssid + ": " + endpoint.getAddress());
+            handler.setKnownEndpoint(endpoint);
+        }
         try {
             if( handler.initialize() ) {
                 Log.e(LOG_TAG, "Network handler initialized");
@@ -113,13 +153,9 @@ public class RemoteManager extends Thread {
 
                 while(enabled && (INSTANCE == this)) {
                     try {
-                        // TODO magic number
-                        Command command = queue.poll(connected ? 7500 : 2500, TimeUnit.MILLISECONDS);
-                        if(command != null) {
-                            process(command);
-                        } else {
-                            handler.send(Header.MSG_A_KEEPALIVE);
-                        }
+                        // keep-alive messages are sent by the network handler's timers
+                        Command command = queue.take();
+                        process(command);
                     } catch(Exception ex) {
                         Log.e(LOG_TAG, "Failed to process a command", ex);
                     }
@@ -127,7 +163,10 @@ public class RemoteManager extends Thread {
             }
         } finally {
             handler.shutdown();
+            dispatcher.shutdown();
             setConnected(false);
+
+            Log.i(LOG_TAG, "Commands queued: " + queue.getOfferedCount() + ", merged: " + queue.getMergedCount());
         }
 
         if(INSTANCE != this) {
@@ -151,21 +190,128 @@ public class RemoteManager extends Thread {
         }
     }
 
-    /** Returns true if this manager is connected and has an active session to the server. */
-    public boolean isConnected() { return connected; }
+    /**
+     * Returns true if this manager is connected and has an active session to the server
+     * and the suspicion level of the connection is below the threshold.
+     */
+    public boolean isConnected() {
+        NetworkHandler current = handler;
+        return connected && current != null &&
+                current.getSuspicionLevel() < current.getSuspicionThreshold();
+    }
+
+    /**
+     * Returns the suspicion level of the connection: the negative decimal logarithm
+     * of the probability that the silence since the last received packet is normal
+     * (0 while not connected).
+     */
+    public double getSuspicionLevel() {
+        NetworkHandler current = handler;
+        return connected && current != null ? current.getSuspicionLevel() : 0.0;
+    }
     /** Set this true if this manager is connected and has an active session to the server. */
-    void setConnected(boolean connected) {
+    synchronized void setConnected(boolean connected) {
         if(this.connected != connected) {
-            Intent intent = new Intent(Intents.ACTION_CALLBACK);
-            intent.putExtra(Intents.EXTRA_CONNECTION_STATE, connected);
-            LocalBroadcastManager.getInstance(remoteService).sendBroadcast(intent);
+            events.connectionChanged(connected);
         }
 
         this.connected = connected;
     }
 
+    /**
+     * Sets the time in milliseconds of silence after the connection is considered lost.
+     * Keep-alive probes are scheduled so that a few of them fit into this time.
+     */
+    public void setLatencyBudget(long latencyBudget) {
+        this.latencyBudget = latencyBudget;
+
+        NetworkHandler current = handler;
+        if(current != null) {
+            current.setLatencyBudget(latencyBudget);
+        }
+    }
+
+    /** Returns the smoothed round-trip time to the server in milliseconds (0 until measured). */
+    public long getRoundTripTime() {
+        NetworkHandler current = handler;
+        return current != null ? current.getSmoothedRtt() : 0L;
+    }
+
+    /**
+     * Stores the endpoint of the server that answered the login
+     * so the next start on the same network can log in directly.
+     */
+    void onEndpointFound(final InetSocketAddress address, final int bufferSize) {
+        final String network = ssid;
+        if(network == null || executor.isShutdown()) return;
+
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                endpointStore.save(network, address, bufferSize);
+            }
+        });
+    }
+
+    /**
+     * Resets the player state after switching to another server
+     * and restores it from the last player parameters of the new server if it is playing.
+     */
+    void onServerSwitched(Packet playerParams) {
+        // ordered with the messages of the previous server still waiting for dispatch
+        dispatcher.post(new Runnable() {
+            @Override
+            public void run() {
+                playerState.set(null);
+                playbackClock.stop();
+                NotificationHelper.cancel(remoteService);
+
+                events.playerExited();
+
+                setConnected(true);
+            }
+        });
+
+        if(playerParams != null) {
+            dispatcher.dispatch(playerParams, SystemClock.elapsedRealtime());
+        }
+    }
+
+    /** Returns the servers that answered a login request (the one in use is marked active). */
+    public List<ServerInfo> getServers() {
+        NetworkHandler current = handler;
+        return current != null ? current.getServers() : new LinkedList<ServerInfo>();
+    }
+
+    /** Switches to another discovered server keeping the session of the current one. */
+    public void selectServer(ServerInfo server) {
+        NetworkHandler current = handler;
+        if(current != null) {
+            current.selectServer(new InetSocketAddress(server.getHost(), server.getPort()));
+        }
+    }
+
+    /** Sends a discovery request to find every server on the network. */
+    public void discoverServers() {
+        NetworkHandler current = handler;
+        if(current != null) {
+            current.discoverServers();
+        }
+    }
+
+    /** Returns the latency histograms of the exchanges with the server. */
+    public LatencyStats getLatencyStats() { return latencyStats; }
+
+    /** Returns the number of commands queued since this manager started. */
+    public long getQueuedCommandCount() { return queue.getOfferedCount(); }
+    /** Returns the number of seek and volume commands superseded by a newer one before sending. */
+    public long getMergedCommandCount() { return queue.getMergedCount(); }
+
+    /** Returns the clock extrapolating the playback position of the remote player. */
+    public PlaybackClock getPlaybackClock() { return playbackClock; }
+
     /** Returns the current state of the remote player. */
-    public PlayerState getPlayerState() { return playerState; }
+    public PlayerState getPlayerState() { return playerState.get(); }
 
     /** Requests remote file list for the given path. */
     public void listFiles(String path) {
@@ -216,24 +362,12 @@ public class RemoteManager extends Thread {
             }
             case Header.MSG_A_LIST_FILES:
             {
-                FileList list = requestFileList(command.getStringData());
-
-                Intent response = new Intent(Intents.ACTION_CALLBACK);
-                response.putExtra(Intents.EXTRA_FILE_LIST, list);
-                LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
-
+                requestFileList(command.getStringData());
                 break;
             }
             case Header.MSG_A_LIST_SETTINGS:
             {
-                Setting[] settings = listSettings();
-
-                if(settings != null) {
-                    Intent response = new Intent(Intents.ACTION_CALLBACK);
-                    response.putExtra(Intents.EXTRA_SETTINGS_LIST, settings);
-                    LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
-                }
-
+                listSettings();
                 break;
             }
             case Header.MSG_A_SET_SETTING:
@@ -265,13 +399,9 @@ public class RemoteManager extends Thread {
         }
     }
 
-    /** Sends a remote login request to the server. */
+    /** Starts logging in to the remote server (retried by the network handler until it succeeds). */
     private void login() {
-        if( handler.sendWithoutSession(Header.MSG_A_LOGIN, "RPi::omxremote") ) {
-            Log.e(LOG_TAG, "Login sent");
-        } else {
-            Log.e(LOG_TAG, "Failed to send main request");
-        }
+        handler.login();
     }
 
     /** Sends an exit message to the remote server. */
@@ -279,258 +409,376 @@ public class RemoteManager extends Thread {
         handler.send(Header.MSG_A_EXIT);
     }
 
-    /** Sends a file list request to the server and parses the response into a FileList object. */
-    private FileList requestFileList(String path) {
-        if(path != null) {
-            handler.send(Header.MSG_A_LIST_FILES, path);
-        } else {
-            handler.send(Header.MSG_A_LIST_FILES);
-        }
+    /**
+     * Sends a file list request to the server. The response is parsed into a FileList object
+     * and broadcasted when it arrives (a null list is broadcasted if it times out).
+     */
+    private void requestFileList(final String path) {
+        ResponseFuture.Matcher matcher = new ResponseFuture.Matcher() {
+            @Override
+            public boolean matches(Packet response) {
+                String data = response.getData();
+                int separator = data.indexOf("||");
+                return isSameDirectory(path, separator >= 0 ? data.substring(0, separator) : data);
+            }
+        };
 
-        Packet response = handler.poll(15000L);
-        if(response != null) {
-            String[] parts = response.getData().split("\\|{2}");
+        handler.request(Header.MSG_A_LIST_FILES, path, REQUEST_TIMEOUT, matcher, new ResponseFuture.Callback() {
+            @Override
+            public void onResponse(Packet response) {
+                FileList list = null;
 
-            String root = parts[0];
-            String[] files = parts.length > 1 ? parts[1].split("\\|") : new String[0];
+                if(response != null) {
+                    String[] parts = response.getData().split("\\|{2}");
 
-            FileList list = new FileList(root, Arrays.asList(files));
-            return list;
-        }
+                    String root = parts[0];
+                    String[] files = parts.length > 1 ? parts[1].split("\\|") : new String[0];
 
-        return null;
+                    list = new FileList(root, Arrays.asList(files));
+                }
+
+                events.fileList(list);
+            }
+        });
     }
 
     /**
-     * Sends a request to the server to list settings and
-     * parses the response into an array of Setting objects.
+     * Checks whether the root echoed in a file list response is the requested directory.
+     * The server resolves the path it lists, so the paths are compared
+     * with "." and ".." segments resolved and without trailing separators.
+     * A listing requested without an absolute path is accepted with any root.
      */
-    private Setting[] listSettings() {
-        handler.send(Header.MSG_A_LIST_SETTINGS);
-
-        Packet response = handler.poll(15000L);
-        if(response != null) {
-            List<Setting> settings = new LinkedList<Setting>();
-
-            String[] parts = response.getData().split(";");
-            for(int idx = 0; idx < parts.length / 5; idx++) {
-                int offset = idx * 5;
-
-                // response format: key;value;description;def.values;type
+    static boolean isSameDirectory(String requested, String root) {
+        if(requested == null || !requested.startsWith("/")) return true;
+        return normalizePath(requested).equals(normalizePath(root));
+    }
 
-                String strType = parts[offset+4];
-                Setting.Type type = Setting.Type.valueOf(strType);
+    /** Returns the path as absolute with "." and ".." segments resolved and without trailing separators. */
+    private static String normalizePath(String path) {
+        LinkedList<String> segments = new LinkedList<String>();
+        for(String segment : path.split("/")) {
+            if(segment.length() == 0 || ".".equals(segment)) continue;
 
-                Setting setting = new Setting(parts[offset+0], parts[offset+1], parts[offset+2], parts[offset+3], type);
-                settings.add(setting);
+            if("..".equals(segment)) {
+                if(!segments.isEmpty()) segments.removeLast();
+            } else {
+                segments.add(segment);
             }
-
-            return settings.toArray(new Setting[0]);
         }
 
-        return null;
-    }
-
-    /** Sends a start video request to the remote server. */
-    private void startVideo(String parameter) {
-        handler.send(Header.MSG_A_START_VIDEO, parameter);
+        StringBuilder builder = new StringBuilder();
+        for(String segment : segments) {
+            builder.append('/').append(segment);
+        }
+        return builder.length() > 0 ? builder.toString() : "/";
     }
 
     /**
-     * Processes an incoming packet that is to be
-     * processed asynchronously (not a response of a command).
+     * Sends a request to the server to list settings. The response is parsed
+     * into an array of Setting objects and broadcasted when it arrives.
      */
-    protected void processAsynchPacket(Packet packet) {
-        switch (packet.getHeader()) {
-            case Header.MSG_A_START_VIDEO:
-            case Header.MSG_A_PLAYER_PARAMS:
-            {
-                String parameter = packet.getData();
+    private void listSettings() {
+        handler.request(Header.MSG_A_LIST_SETTINGS, null, REQUEST_TIMEOUT, new ResponseFuture.Callback() {
+            @Override
+            public void onResponse(Packet response) {
+                if(response == null) return;
 
-                Intent response = new Intent(Intents.ACTION_CALLBACK);
-                response.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_INIT);
+                List<Setting> settings = new LinkedList<Setting>();
 
-                // on initial starting of the playback or when the application restarts
-                // the server sends a packet with information about the length of the video,
-                // the initial volume of the player and the filename of the started video
-                if(parameter != null) {
-                    try {
-                        String pattern = "d([0-9]+)v([0-9\\-]+)\\|(.*)";
-                        long duration = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
-                        long volume   = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
-                        String fname  = parameter.replaceFirst(pattern, "$3");
+                String[] parts = response.getData().split(";");
+                for(int idx = 0; idx < parts.length / 5; idx++) {
+                    int offset = idx * 5;
 
-                        playerState = new PlayerState(remoteService.getResources(), fname, duration, volume);
+                    // response format: key;value;description;def.values;type
 
-                        NotificationHelper.postNotification(remoteService, playerState);
-                    } catch(Exception ex) {
-                        ex.printStackTrace();
+                    String strType = parts[offset+4];
+                    Setting.Type type = Setting.Type.valueOf(strType);
 
-                        // TODO get error string from resources
-                        response.putExtra(Intents.EXTRA_ERROR, "Failed to parse video state: " + parameter);
-                    }
-                } else {
-                    // TODO get error string from resources
-                    response.putExtra(Intents.EXTRA_ERROR, "Failed to start video");
+                    Setting setting = new Setting(parts[offset+0], parts[offset+1], parts[offset+2], parts[offset+3], type);
+                    settings.add(setting);
                 }
 
-                LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
-
-                break;
+                events.settingsList(settings.toArray(new Setting[0]));
             }
-            case Header.MSG_A_STOP_VIDEO:
-            {
-                playerState = null;
+        });
+    }
 
-                NotificationHelper.cancel(remoteService);
+    /** Registers the handlers of the messages not sent as responses of requests. */
+    private void registerHandlers() {
+        // keep-alive messages only prove that the session is alive
+        dispatcher.register(Header.MSG_A_KEEPALIVE, PacketDispatcher.IGNORE);
+
+        PacketHandler paramsHandler = new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { onPlayerParams(packet); }
+        };
+        dispatcher.register(Header.MSG_A_START_VIDEO, paramsHandler);
+        dispatcher.register(Header.MSG_A_PLAYER_PARAMS, paramsHandler);
+
+        dispatcher.register(Header.MSG_A_STOP_VIDEO, new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { onStopVideo(packet); }
+        });
+        dispatcher.register(Header.MSG_A_PLAYER_STATE, new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { onPlayerState(packet); }
+        });
+        dispatcher.register(Header.MSG_A_PLAYER_INFO, new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { onPlayerInfo(packet); }
+        });
+        dispatcher.register(Header.MSG_A_PLAYER_EXTRA, new PacketHandler() {
+            @Override
+            public void handle(Packet packet) { onPlayerExtra(packet); }
+        });
+    }
 
-                Intent response = new Intent(Intents.ACTION_CALLBACK);
-                response.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_EXIT);
-                LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
+    /** Sends a start video request to the remote server. */
+    private void startVideo(String parameter) {
+        handler.send(Header.MSG_A_START_VIDEO, parameter);
+    }
 
-                break;
+    /** Processes the player parameters sent when a video starts (or on request). */
+    private void onPlayerParams(Packet packet) {
+        String parameter = packet.getData();
+
+        // on initial starting of the playback or when the application restarts
+        // the server sends a packet with information about the length of the video,
+        // the initial volume of the player and the filename of the started video
+        if(parameter != null) {
+            PlayerMessageParser.Params params = PlayerMessageParser.parseParams(parameter);
+            if(params != null) {
+                PlayerState state = new PlayerState(remoteService.getResources(),
+                        params.filename, params.duration, params.volume);
+                playerState.set(state);
+                playbackClock.start(params.duration);
+
+                NotificationHelper.postNotification(remoteService, state);
+
+                events.playerStarted(state);
+            } else {
+                // TODO get error string from resources
+                events.error("Failed to parse video state: " + parameter);
             }
-            case Header.MSG_A_PLAYER_STATE:
-            {
-                String parameter = packet.getData();
-
-                Intent response = new Intent(Intents.ACTION_CALLBACK);
-                response.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_STATE);
-
-                // when the remote player's state changes the server sends
-                // the current playback position in milliseconds, the current volume
-                // and whether the player is currently paused
-                try {
-                    String pattern = "p([0-9]+)v([0-9\\-]+)([PR])";
-                    long position  = Long.parseLong( parameter.replaceFirst(pattern, "$1") );
-                    long volume    = Long.parseLong( parameter.replaceFirst(pattern, "$2") );
-                    boolean paused = "P".equals( parameter.replaceFirst(pattern, "$3") );
-
-                    if(playerState != null) {
-                        boolean notify = playerState.isPaused() != paused;
-                        boolean refresh = notify && (playerState.isPaused() != paused);
-
-                        playerState.setPosition(position);
-                        playerState.setVolume(volume);
-                        playerState.setPaused(paused);
-
-                        if(notify) {
-                            NotificationHelper.postNotification(remoteService, playerState);
-                        }
-                    }
+        } else {
+            // TODO get error string from resources
+            events.error("Failed to start video");
+        }
+    }
 
-                } catch(Exception ex) {
-                    // TODO get error string from resources
-                    response.putExtra(Intents.EXTRA_ERROR, "Failed to parse video state: " + parameter);
-                }
+    /** Processes the notification of the remote player exiting. */
+    private void onStopVideo(Packet packet) {
+        playerState.set(null);
+        playbackClock.stop();
 
-                LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
+        NotificationHelper.cancel(remoteService);
 
-                break;
+        events.playerExited();
+    }
+
+    /** Processes a change of the remote player state. */
+    private void onPlayerState(Packet packet) {
+        // when the remote player's state changes the server sends
+        // the current playback position in milliseconds, the current volume
+        // and whether the player is currently paused
+        if(stateDecoder.decode(packet)) {
+            long position  = stateDecoder.getPosition();
+            long volume    = stateDecoder.getVolume();
+            boolean paused = stateDecoder.isPaused();
+
+            PlayerState current = playerState.get();
+            if(current != null) {
+                playbackClock.onReport(position, paused, dispatcher.getReceiveTime(), getRoundTripTime());
+
+                PlayerState state = current.withPlayback(position, volume, paused);
+
+                int changes = publish(current, state);
+                if((changes & NOTIFIED_CHANGES) != 0) {
+                    NotificationHelper.postNotification(remoteService, state);
+                }
+                if(changes != 0) {
+                    events.playerStateChanged(state);
+                }
             }
-            case Header.MSG_A_PLAYER_INFO:
-            {
-                String parameter = packet.getData();
-                if(parameter == null || playerState == null) break;
 
-                Intent response = new Intent(Intents.ACTION_CALLBACK);
-                response.putExtra(Intents.EXTRA_PLAYER_REPORT, Intents.EXTRA_PLAYER_REPORT_INFO);
+        } else {
+            // TODO get error string from resources
+            events.error("Failed to parse video state: " + packet.getData());
+        }
+    }
 
-                try {
+    /** Processes the guessed information about the video being played. */
+    private void onPlayerInfo(Packet packet) {
+        String parameter = packet.getData();
+        PlayerState current = playerState.get();
+        if(parameter == null || current == null) return;
 
-                    // if the remote server guessed the video as an episode of a show
-                    // then it sends information about the guessed title, season and episode number
-                    if(parameter.matches("SHOW\\$.*\\$.*")) {
-                        String title = parameter.replaceFirst("SHOW\\$(.*)\\$.*", "$1");
-                        String info  = parameter.replaceFirst("SHOW\\$.*\\$(.*)", "$1");
+        PlayerState state = current;
 
-                        Integer season  = null;
-                        Integer episode = null;
+        PlayerMessageParser.Info parsed = PlayerMessageParser.parseInfo(parameter);
+        if(parsed != null) {
+            Map<PlayerProperty, String> properties = new HashMap<PlayerProperty, String>();
 
-                        if(info.matches("S[0-9]+.*")) {
-                            season  = Integer.parseInt( info.replaceFirst("S([0-9]+).*", "$1") );
-                            info    = info.replaceFirst("S[0-9]+(.*)", "$1");
-                        }
-                        if(info.matches("E[0-9]+.*")) {
-                            episode = Integer.parseInt( info.replaceFirst("E([0-9]+).*", "$1") );
-                            info    = info.replaceFirst("E[0-9]+(.*)", "$1");
-                        }
+            // if the remote server guessed the video as an episode of a show
+            // then it sends information about the guessed title, season and episode number
+            if(parsed.type == PlayerMessageParser.Info.TYPE_SHOW) {
+                int season  = parsed.season;
+                int episode = parsed.episode;
 
-                        StringBuilder infoBuilder = new StringBuilder();
-                        if(season != null) {
-                            String season2char = (season < 10 ? "0" : "") + season;
-                            infoBuilder.append("season ").append(season2char).append(" ");
+                StringBuilder infoBuilder = new StringBuilder();
+                if(season != PlayerMessageParser.Info.NONE) {
+                    String season2char = (season < 10 ? "0" : "") + season;
+                    infoBuilder.append("season ").append(season2char).append(" ");
 
-                            playerState.getProperties().put(
-                                    PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_SEASON),
-                                    season2char);
-                        }
-                        if(episode != null) {
-                            String episode2char = (episode < 10 ? "0" : "") + episode;
-                            infoBuilder.append("episode ").append(episode2char).append(" ");
+                    properties.put(
+                            PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_SEASON),
+                            season2char);
+                }
+                if(episode != PlayerMessageParser.Info.NONE) {
+                    String episode2char = (episode < 10 ? "0" : "") + episode;
+                    infoBuilder.append("episode ").append(episode2char).append(" ");
 
-                            playerState.getProperties().put(
-                                    PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_EPISODE),
-                                    episode2char);
-                        }
+                    properties.put(
+                            PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_EPISODE),
+                            episode2char);
+                }
 
-                        String textInfo = infoBuilder.toString().trim();
+                String textInfo = infoBuilder.toString().trim();
 
-                        playerState.setTitle(title);
-                        playerState.setInfo(textInfo);
+                state = state.withInfo(parsed.title, textInfo, properties);
 
-                    }
-                    // if the remote server guessed the video as a movie then
-                    // it sends the guessed title and the year of it
-                    else if(parameter.matches("MOVIE\\$.*\\$.*")) {
+            }
+            // if the remote server guessed the video as a movie then
+            // it sends the guessed title and the year of it
+            else if(parsed.type == PlayerMessageParser.Info.TYPE_MOVIE) {
+
+                StringBuilder infoBuilder = new StringBuilder();
+                if(parsed.year != PlayerMessageParser.Info.NONE) {
+                    infoBuilder.append("year ");
+                    infoBuilder.append(parsed.year).append(" ");
+                }
 
-                        String title = parameter.replaceFirst("MOVIE\\$(.*)\\$.*", "$1");
-                        String info  = parameter.replaceFirst("MOVIE\\$.*\\$(.*)", "$1");
+                String textInfo = infoBuilder.toString().trim();
 
-                        Integer year = null;
+                state = state.withInfo(parsed.title, textInfo, properties);
 
-                        if(info.matches("Y[0-9]+.*")) {
-                            year = Integer.parseInt( info.replaceFirst("Y([0-9]+).*", "$1") );
-                            info = info.replaceFirst("Y[0-9]+(.*)", "$1");
-                        }
+            }
 
-                        StringBuilder infoBuilder = new StringBuilder();
-                        if(year != null) {
-                            infoBuilder.append("year ");
-                            infoBuilder.append(year).append(" ");
-                        }
+            int changes = publish(current, state);
+            if((changes & NOTIFIED_CHANGES) != 0) {
+                NotificationHelper.postNotification(remoteService, state);
+            }
+            if(changes != 0) {
+                events.playerInfoChanged(state);
+            }
+        } else {
+            // TODO get error string from resources
+            events.error("Failed to parse video info: " + parameter);
+        }
+    }
 
-                        String textInfo = infoBuilder.toString().trim();
+    /** Processes the extra (TVDB) information about the video being played. */
+    private void onPlayerExtra(Packet packet) {
+        // this could be TVDB informations if the remote server found them
 
-                        playerState.setTitle(title);
-                        playerState.setInfo(textInfo);
+        String parameter = packet.getData();
+        PlayerState current = playerState.get();
+        if(parameter != null && current != null) {
+            PlayerState state = current.withExtras(parameter);
 
-                    }
+            int changes = publish(current, state);
+            if((changes & PlayerState.CHANGED_PROPERTIES) != 0) {
+                events.playerExtrasChanged(state);
 
-                    NotificationHelper.postNotification(remoteService, playerState);
-                } catch(Exception ex) {
-                    // TODO get error string from resources
-                    response.putExtra(Intents.EXTRA_ERROR, "Failed to parse video info: " + parameter);
+                NotificationHelper.postNotification(remoteService, state);
+
+                List<String> posterUrls = state.listPosterUrls();
+                if(!posterUrls.isEmpty()) {
+                    loadPoster(state, posterUrls);
                 }
+            }
+        }
+    }
 
-                LocalBroadcastManager.getInstance(remoteService).sendBroadcast(response);
+    /**
+     * Publishes a newer player state snapshot if it changed anything (on the dispatcher thread).
+     * @param current The currently published snapshot
+     * @param state   The newer snapshot derived from the current one
+     * @return The flags of the changed fields (nothing is published if there is none)
+     */
+    private int publish(PlayerState current, PlayerState state) {
+        int changes = state.changesSince(current);
+        if(changes != 0) {
+            playerState.set(state);
+        }
+        return changes;
+    }
 
-                break;
+    /**
+     * Downloads the first available poster image in the background
+     * and sets it on the player state if the same playback is still running.
+     * @param requester  The player state snapshot the posters were found in
+     * @param posterUrls The URL locations of the poster images in order of preference
+     */
+    private void loadPoster(final PlayerState requester, final List<String> posterUrls) {
+        if(executor.isShutdown()) return;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for(String posterUrl : posterUrls) {
+                    final BitmapDrawable poster = downloadPoster(posterUrl);
+                    if(poster == null) continue;
+
+                    // the snapshot is replaced on the dispatcher thread only
+                    dispatcher.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            PlayerState current = playerState.get();
+                            if(requester.isSamePlayback(current)) {
+                                PlayerState state = current.withPoster(poster);
+                                playerState.set(state);
+
+                                events.playerExtrasChanged(state);
+
+                                NotificationHelper.postNotification(remoteService, state);
+                            }
+                        }
+                    });
+                    break;
+                }
             }
-            case Header.MSG_A_PLAYER_EXTRA:
-            {
-                // this could be TVDB informations if the remote server found them
+        });
+    }
 
-                String parameter = packet.getData();
-                if(parameter != null && playerState != null) {
-                    playerState.parseExtras(parameter, executor, remoteService);
+    /**
+     * Loads a poster image from the given URL.
+     * @param posterUrl The URL location of the poster image
+     * @return The downloaded poster or null if it could not be loaded
+     */
+    private BitmapDrawable downloadPoster(String posterUrl) {
+        try {
+            URL url = new URL(posterUrl);
+            URLConnection connection = url.openConnection();
+            connection.setReadTimeout(30000); // 30 sec
 
-                    NotificationHelper.postNotification(remoteService, playerState);
-                }
+            InputStream input = connection.getInputStream();
 
-                break;
+            Bitmap bitmap = null;
+            try {
+                bitmap = BitmapFactory.decodeStream(input);
+            } finally {
+                input.close();
             }
+
+            if(bitmap != null) {
+                return new BitmapDrawable(remoteService.getResources(), bitmap);
+            }
+        } catch(Exception ex) {
+            Log.d(LOG_TAG, "Failed to load poster from " + posterUrl, ex);
         }
+
+        return null;
     }
 
 }
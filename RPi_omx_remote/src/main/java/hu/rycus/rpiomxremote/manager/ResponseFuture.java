@@ -0,0 +1,162 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future result of a request sent to the remote server.
+ * It completes with the response packet that was matched to the request
+ * or with null when no response arrived in time.
+ */
+public class ResponseFuture implements Future<Packet> {
+
+    /** Callback interface to get notified when a request completes. */
+    public interface Callback {
+        /**
+         * Runs once when the request completes (on the network handler's thread
+         * or on the thread cancelling the request).
+         * @param response The response packet or null if the request timed out or was cancelled
+         */
+        void onResponse(Packet response);
+    }
+
+    /** Interface to decide whether a response belongs to a request. */
+    public interface Matcher {
+        /**
+         * Checks the response received with the header of the request (on the network handler's thread).
+         * @param response The response packet
+         * @return true if the response answers the request
+         */
+        boolean matches(Packet response);
+    }
+
+    /** The header of the request (and the expected response). */
+    private final int header;
+    /** The time (in elapsed realtime milliseconds) when the request was sent. */
+    private final long startTime;
+    /** The time (in elapsed realtime milliseconds) when the request times out. */
+    private final long deadline;
+    /** The matcher deciding which responses belong to the request (may be null). */
+    private final Matcher matcher;
+    /** The callback to notify on completion (may be null). */
+    private final Callback callback;
+
+    /** Latch released when the request completes. */
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    /** The response packet (null until completed or if timed out). */
+    private volatile Packet response;
+    /** True if the request timed out without a response. */
+    private volatile boolean timedOut = false;
+    /** True if the request was cancelled. */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Package-private constructor.
+     * @param header    The header of the request
+     * @param startTime The time (in elapsed realtime milliseconds) when the request was sent
+     * @param deadline The time (in elapsed realtime milliseconds) when the request times out
+     * @param matcher  The matcher deciding which responses belong to the request (may be null)
+     * @param callback The callback to notify on completion (may be null)
+     */
+    ResponseFuture(int header, long startTime, long deadline, Matcher matcher, Callback callback) {
+        this.header = header;
+        this.startTime = startTime;
+        this.deadline = deadline;
+        this.matcher = matcher;
+        this.callback = callback;
+    }
+
+    /** Returns the header of the request. */
+    public int getHeader() { return header; }
+
+    /** Returns the time (in elapsed realtime milliseconds) when the request was sent. */
+    long getStartTime() { return startTime; }
+
+    /** Returns the time (in elapsed realtime milliseconds) when the request times out. */
+    long getDeadline() { return deadline; }
+
+    /** Returns true if the request timed out without a response. */
+    public boolean isTimedOut() { return timedOut; }
+
+    /** Returns true if the given response belongs to this request (any response without a matcher). */
+    boolean accepts(Packet packet) { return matcher == null || matcher.matches(packet); }
+
+    /** Completes the request with the given response. */
+    void complete(Packet packet) {
+        if(finish(packet)) {
+            if(callback != null) callback.onResponse(packet);
+        }
+    }
+
+    /** Completes the request without a response because it timed out. */
+    void expire() {
+        timedOut = true;
+        if(finish(null)) {
+            if(callback != null) callback.onResponse(null);
+        }
+    }
+
+    /** Sets the result and releases the waiting threads; returns false if already completed. */
+    private synchronized boolean finish(Packet packet) {
+        if(isDone()) return false;
+
+        this.response = packet;
+        latch.countDown();
+        return true;
+    }
+
+    /**
+     * Completes the request without a response, notifying the callback.
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if(isDone()) return false;
+
+            cancelled = true;
+            latch.countDown();
+        }
+
+        if(callback != null) callback.onResponse(null);
+        return true;
+    }
+
+    /** @see java.util.concurrent.Future#isCancelled() */
+    @Override
+    public boolean isCancelled() { return cancelled; }
+
+    /** @see java.util.concurrent.Future#isDone() */
+    @Override
+    public boolean isDone() { return latch.getCount() == 0; }
+
+    /**
+     * Waits for the response.
+     * @return The response packet or null if the request timed out or was cancelled
+     * @see java.util.concurrent.Future#get()
+     */
+    @Override
+    public Packet get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return response;
+    }
+
+    /**
+     * Waits for the response at most for the given time.
+     * @return The response packet or null if the request timed out or was cancelled
+     * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public Packet get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if(!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return response;
+    }
+
+}
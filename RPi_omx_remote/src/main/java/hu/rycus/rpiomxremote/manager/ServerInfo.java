@@ -0,0 +1,43 @@
+package hu.rycus.rpiomxremote.manager;
+
+/**
+ * Snapshot of a discovered remote server.
+ */
+public class ServerInfo {
+
+    /** The host address of the server. */
+    private final String host;
+    /** The port of the server. */
+    private final int port;
+    /** The smoothed round-trip time to the server in milliseconds. */
+    private final long roundTripTime;
+    /** True if this is the server the remote manager currently communicates with. */
+    private final boolean active;
+
+    /** Package-private constructor with the server parameters. */
+    ServerInfo(String host, int port, long roundTripTime, boolean active) {
+        this.host = host;
+        this.port = port;
+        this.roundTripTime = roundTripTime;
+        this.active = active;
+    }
+
+    /** Returns the host address of the server. */
+    public String getHost() { return host; }
+
+    /** Returns the port of the server. */
+    public int getPort() { return port; }
+
+    /** Returns the smoothed round-trip time to the server in milliseconds. */
+    public long getRoundTripTime() { return roundTripTime; }
+
+    /** Returns true if this is the server the remote manager currently communicates with. */
+    public boolean isActive() { return active; }
+
+    /** @see Object#toString() */
+    @Override
+    public String toString() {
+        return host + ":" + port + " (" + roundTripTime + " ms)" + (active ? " *" : "");
+    }
+
+}
@@ -0,0 +1,144 @@
+package hu.rycus.rpiomxremote.manager;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the servers that answered a login request, with the session of each.
+ * <p>
+ *     Every responding server keeps its own session, so the network handler can
+ *     switch between them without logging in again; the sessions of the servers
+ *     not in use are kept alive by periodic keep-alive messages and a server
+ *     is forgotten when it does not answer them for a while.
+ * </p>
+ */
+class ServerRegistry {
+
+    /** The known servers by their address in order of discovery. */
+    private final Map<SocketAddress, Server> servers = new LinkedHashMap<SocketAddress, Server>();
+
+    /**
+     * Registers a login response of a server.
+     * @param address    The address of the server
+     * @param sessionID  The session ID sent by the server
+     * @param bufferSize The buffer size sent by the server
+     * @param reliable   True if the server supports reliable messages
+     * @param rtt        The measured round-trip time of the login in milliseconds (0 if not known)
+     * @param now        The current time in elapsed realtime milliseconds
+     * @return The registered server
+     */
+    synchronized Server update(InetSocketAddress address, String sessionID, int bufferSize,
+                               boolean reliable, long rtt, long now) {
+        Server server = servers.get(address);
+        if(server == null) {
+            server = new Server(address);
+            servers.put(address, server);
+        }
+
+        server.sessionID = sessionID;
+        server.sessionPrefix = sessionID.getBytes();
+        server.bufferSize = bufferSize;
+        server.reliable = reliable;
+        server.lastSeen = now;
+        server.updateRtt(rtt);
+
+        return server;
+    }
+
+    /** Returns the server with the given address or null if it is not known. */
+    synchronized Server get(SocketAddress address) {
+        return servers.get(address);
+    }
+
+    /** Forgets the server with the given address (for example because its session became invalid). */
+    synchronized void remove(SocketAddress address) {
+        servers.remove(address);
+    }
+
+    /**
+     * Forgets the servers that were not heard from for the given time.
+     * @param now      The current time in elapsed realtime milliseconds
+     * @param maxAge   The time in milliseconds after a silent server is forgotten
+     * @param retained The address of a server not to forget (may be null)
+     */
+    synchronized void expire(long now, long maxAge, SocketAddress retained) {
+        for(Iterator<Server> iterator = servers.values().iterator(); iterator.hasNext(); ) {
+            Server server = iterator.next();
+            if(now - server.lastSeen > maxAge && !server.address.equals(retained)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /** Returns the known servers except the one with the given address. */
+    synchronized List<Server> others(SocketAddress excluded) {
+        List<Server> result = new ArrayList<Server>(servers.size());
+        for(Server server : servers.values()) {
+            if(!server.address.equals(excluded)) {
+                result.add(server);
+            }
+        }
+        return result;
+    }
+
+    /** Returns snapshots of the known servers marking the one with the given address as active. */
+    synchronized List<ServerInfo> snapshot(SocketAddress active) {
+        List<ServerInfo> result = new ArrayList<ServerInfo>(servers.size());
+        for(Server server : servers.values()) {
+            result.add(new ServerInfo(
+                    server.address.getAddress() != null ?
+                            server.address.getAddress().getHostAddress() :
+                            server.address.getHostName(),
+                    server.address.getPort(),
+                    server.srtt,
+                    server.address.equals(active)));
+        }
+        return result;
+    }
+
+    /** A known server with its session (fields are guarded by the registry). */
+    static class Server {
+
+        /** The address of the server. */
+        final InetSocketAddress address;
+        /** The session ID sent by the server. */
+        String sessionID;
+        /** The session ID encoded to prefix outgoing messages. */
+        byte[] sessionPrefix;
+        /** The buffer size sent by the server. */
+        int bufferSize;
+        /** True if the server supports reliable messages. */
+        boolean reliable;
+        /** The smoothed round-trip time in milliseconds (0 until measured). */
+        long srtt = 0L;
+        /** The time the server was last heard from. */
+        long lastSeen;
+        /** The time the last keep-alive was sent to the server while not in use (0 if answered). */
+        long keepaliveSentTime = 0L;
+        /** The last player parameters sent by the server while not in use (null if not playing). */
+        Packet playerParams;
+
+        /** Constructor with the address of the server. */
+        Server(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /** Updates the smoothed round-trip time with a new sample (ignored if 0). */
+        void updateRtt(long sample) {
+            if(sample <= 0L) return;
+
+            if(srtt == 0L) {
+                srtt = sample;
+            } else {
+                srtt = (7 * srtt + sample) / 8;
+            }
+        }
+
+    }
+
+}
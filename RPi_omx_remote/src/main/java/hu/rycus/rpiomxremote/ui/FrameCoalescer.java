@@ -0,0 +1,195 @@
+package hu.rycus.rpiomxremote.ui;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+/**
+ * Collects UI updates and applies only the latest one once per display frame.
+ * <p>
+ *     Frames are timed by the {@link Choreographer} on Jelly Bean and above
+ *     and by a handler aligned to the expected frame time on older versions.
+ *     While the target is not visible no frame is scheduled, only the latest
+ *     update is kept to be applied when the target becomes visible again.
+ *     Updates replaced by a newer one before being applied are counted as dropped.
+ *     Every method has to be called on the main thread.
+ * </p>
+ */
+class FrameCoalescer<T> {
+
+    /** The expected time of a display frame in milliseconds (used before Jelly Bean). */
+    private static final long FRAME_TIME = 16L;
+
+    /** Receiver of the coalesced updates. */
+    interface Target<T> {
+
+        /** Applies the latest update (called on the main thread once per frame at most). */
+        void apply(T update);
+
+    }
+
+    /** The receiver of the coalesced updates. */
+    private final Target<T> target;
+    /** Schedules the application of the pending update on the next frame. */
+    private final FrameTicker ticker;
+
+    /** The latest update not applied yet (null if none). */
+    private T pending = null;
+    /** True if the pending update is scheduled to be applied on the next frame. */
+    private boolean scheduled = false;
+    /** True if the target is visible (so updates should be applied). */
+    private boolean visible = false;
+
+    /** The number of updates applied. */
+    private long appliedCount = 0L;
+    /** The number of updates replaced by a newer one before being applied. */
+    private long droppedCount = 0L;
+    /** The total time in nanoseconds spent applying updates. */
+    private long totalApplyTime = 0L;
+    /** The longest time in nanoseconds spent applying an update. */
+    private long maxApplyTime = 0L;
+
+    /**
+     * Package-private constructor.
+     * @param target The receiver of the coalesced updates
+     */
+    FrameCoalescer(Target<T> target) {
+        this.target = target;
+
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            this.ticker = new ChoreographerTicker();
+        } else {
+            this.ticker = new HandlerTicker();
+        }
+    }
+
+    /**
+     * Package-private constructor with a custom timing of the frames.
+     * @param target The receiver of the coalesced updates
+     * @param ticker Schedules the application of the pending update (by calling {@link #onFrame()})
+     */
+    FrameCoalescer(Target<T> target, FrameTicker ticker) {
+        this.target = target;
+        this.ticker = ticker;
+    }
+
+    /** Submits an update to be applied on the next frame (replacing the pending one). */
+    void submit(T update) {
+        if(pending != null) {
+            droppedCount++;
+        }
+
+        pending = update;
+
+        if(visible && !scheduled) {
+            scheduled = true;
+            ticker.schedule();
+        }
+    }
+
+    /** Sets whether the target is visible (updates are applied only while it is). */
+    void setVisible(boolean visible) {
+        this.visible = visible;
+
+        if(visible && pending != null && !scheduled) {
+            scheduled = true;
+            ticker.schedule();
+        } else if(!visible && scheduled) {
+            scheduled = false;
+            ticker.cancel();
+        }
+    }
+
+    /** Applies the pending update on a frame. */
+    void onFrame() {
+        scheduled = false;
+
+        T update = pending;
+        pending = null;
+        if(update == null || !visible) return;
+
+        long start = System.nanoTime();
+        target.apply(update);
+        long time = System.nanoTime() - start;
+
+        appliedCount++;
+        totalApplyTime += time;
+        maxApplyTime = Math.max(maxApplyTime, time);
+    }
+
+    /** Returns the number of updates applied. */
+    long getAppliedCount() { return appliedCount; }
+
+    /** Returns the number of updates replaced by a newer one before being applied. */
+    long getDroppedCount() { return droppedCount; }
+
+    /** Returns the average time in microseconds spent applying an update. */
+    long getAverageApplyTime() {
+        return appliedCount > 0L ? totalApplyTime / appliedCount / 1000L : 0L;
+    }
+
+    /** Returns the longest time in microseconds spent applying an update. */
+    long getMaxApplyTime() { return maxApplyTime / 1000L; }
+
+    /** Schedules a single call of {@link #onFrame()} on the next frame. */
+    interface FrameTicker {
+
+        /** Schedules the call on the next frame. */
+        void schedule();
+
+        /** Cancels the scheduled call. */
+        void cancel();
+
+    }
+
+    /** Ticker timed by the choreographer (Jelly Bean and above only). */
+    private class ChoreographerTicker implements FrameTicker, Choreographer.FrameCallback {
+
+        /** @see FrameTicker#schedule() */
+        @Override
+        public void schedule() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /** @see FrameTicker#cancel() */
+        @Override
+        public void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        /** @see android.view.Choreographer.FrameCallback#doFrame(long) */
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame();
+        }
+
+    }
+
+    /** Ticker posting to a handler at the start of the next expected frame. */
+    private class HandlerTicker implements FrameTicker, Runnable {
+
+        /** Handler of the main thread. */
+        private final Handler handler = new Handler();
+
+        /** @see FrameTicker#schedule() */
+        @Override
+        public void schedule() {
+            handler.postDelayed(this, FRAME_TIME - SystemClock.uptimeMillis() % FRAME_TIME);
+        }
+
+        /** @see FrameTicker#cancel() */
+        @Override
+        public void cancel() {
+            handler.removeCallbacks(this);
+        }
+
+        /** @see Runnable#run() */
+        @Override
+        public void run() {
+            onFrame();
+        }
+
+    }
+
+}
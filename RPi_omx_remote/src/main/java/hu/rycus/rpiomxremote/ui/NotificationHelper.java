@@ -47,6 +47,8 @@ public class NotificationHelper extends BroadcastReceiver {
      * the user shouldn't be able to clear it).
      */
     private static boolean userCancelled = false;
+    /** The player state snapshot posted last (or null if none). */
+    private static PlayerState postedState = null;
 
     /** Helper object to bind/unbind the remote service. */
     private static final RemoteServiceCreator rsc = new RemoteServiceCreator();
@@ -55,6 +57,10 @@ public class NotificationHelper extends BroadcastReceiver {
     public static void postNotification(RemoteService service, PlayerState state) {
 
         if(userCancelled) return;
+        int changes = state.changesSince(postedState);
+        // the same snapshot is displayed already
+        if(builder != null && changes == 0) return;
+        postedState = state;
 
         if(!rsc.isBindRequested()) {
             rsc.bind(service);
@@ -127,7 +133,7 @@ public class NotificationHelper extends BroadcastReceiver {
         }
 
         service.startForeground(NOTIFICATION_ID, notification);
-        PlayerMediaReceiver.activate(service, state);
+        PlayerMediaReceiver.activate(service, state, changes);
     }
 
     /** Cancels the notification. */
@@ -140,6 +146,7 @@ public class NotificationHelper extends BroadcastReceiver {
         builder = null;
         remoteViews = null;
         userCancelled = false;
+        postedState = null;
     }
 
     /**
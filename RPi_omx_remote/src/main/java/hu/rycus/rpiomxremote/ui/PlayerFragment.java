@@ -6,6 +6,7 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
 import android.view.View;
@@ -27,6 +28,7 @@ import java.util.Map;
 import hu.rycus.rpiomxremote.R;
 import hu.rycus.rpiomxremote.RemoteService;
 import hu.rycus.rpiomxremote.RemoteServiceCreator;
+import hu.rycus.rpiomxremote.manager.PlaybackClock;
 import hu.rycus.rpiomxremote.manager.PlayerProperty;
 import hu.rycus.rpiomxremote.manager.PlayerState;
 
@@ -47,6 +49,12 @@ public class PlayerFragment extends Fragment {
     /** Intent extra key for video file name. */
     public static final String EXTRA_PLAYER_VIDEO_FILE  = "init.video.file";
 
+    /** Tag for logcat. */
+    private static final String LOG_TAG = "RPiOMX|PF";
+
+    /** The shortest time in milliseconds between moving the displayed position (about a frame). */
+    private static final long MIN_TICK_DELAY = 16L;
+
     /** The root view group of the fragment. */
     private ViewGroup   vRoot;
     /** Image view for the background poster. */
@@ -107,6 +115,16 @@ public class PlayerFragment extends Fragment {
     private long playbackLength = 0;
     /** The current volume. */
     private long volume = Long.MIN_VALUE;
+    /** The player state snapshot displayed last (or null if none). */
+    private PlayerState displayedState = null;
+    /** Applies the latest player state once per frame while the fragment is resumed. */
+    private final FrameCoalescer<PlayerState> stateUpdates = new FrameCoalescer<PlayerState>(
+            new FrameCoalescer.Target<PlayerState>() {
+                @Override
+                public void apply(PlayerState state) {
+                    applyPlayerState(state);
+                }
+            });
     /** Popup menu for the menu button. */
     private PopupMenu popupMenu;
     /** True if the player provided miscellaneous data. */
@@ -168,6 +186,67 @@ public class PlayerFragment extends Fragment {
         rsc.unbind(getActivity());
     }
 
+    /** @see android.support.v4.app.Fragment#onResume() */
+    @Override
+    public void onResume() {
+        super.onResume();
+        stateUpdates.setVisible(true);
+        restartPositionTicker();
+    }
+
+    /** @see android.support.v4.app.Fragment#onPause() */
+    @Override
+    public void onPause() {
+        super.onPause();
+        stateUpdates.setVisible(false);
+        seekbar.removeCallbacks(positionTicker);
+
+        if(Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Player state updates applied: " + stateUpdates.getAppliedCount() +
+                    ", dropped: " + stateUpdates.getDroppedCount() +
+                    " (apply time avg: " + stateUpdates.getAverageApplyTime() +
+                    " us, max: " + stateUpdates.getMaxApplyTime() + " us)");
+        }
+    }
+
+    /** Task moving the displayed position by the playback clock while the player is playing. */
+    private final Runnable positionTicker = new Runnable() {
+        @Override
+        public void run() {
+            PlaybackClock clock = getPlaybackClock();
+            if(clock == null || !clock.isRunning() || !isResumed()) return;
+
+            long position = clock.getPosition();
+            setPosition(position, false);
+
+            seekbar.postDelayed(this, getTickDelay(position));
+        }
+    };
+
+    /** Restarts moving the displayed position by the playback clock (if the player is playing). */
+    private void restartPositionTicker() {
+        seekbar.removeCallbacks(positionTicker);
+        seekbar.post(positionTicker);
+    }
+
+    /** Returns the clock of the remote playback (null if the service is not bound). */
+    private PlaybackClock getPlaybackClock() {
+        return rsc.isServiceBound() ? rsc.getService().getPlaybackClock() : null;
+    }
+
+    /**
+     * Returns the time in milliseconds until the displayed position changes visibly:
+     * until the next second of the elapsed time or the next step of the seek bar.
+     */
+    private long getTickDelay(long position) {
+        long delay = 1000L - position % 1000L;
+        if(playbackLength > 0) {
+            long step = Math.max(1L, playbackLength / seekbar.getMax());
+            delay = Math.min(delay, step - position % step);
+        }
+        return Math.max(MIN_TICK_DELAY, delay);
+    }
+
     /** Finds a view by the given identifier. */
     private <T> T find(int id) {
         return (T) vRoot.findViewById(id);
@@ -258,19 +337,53 @@ public class PlayerFragment extends Fragment {
         setPaused(paused);
     }
 
-    /** Processes current player state. */
+    /**
+     * Processes current player state on the next frame
+     * (a newer state submitted before that replaces this one).
+     */
     public void processPlayerState(PlayerState state) {
-        setLength(state.getDuration());
-        setState(state.getPosition(), state.getVolume(), state.isPaused());
+        stateUpdates.submit(state);
+    }
+
+    /** Displays the player state (only the parts changed since the last displayed one). */
+    private void applyPlayerState(PlayerState state) {
+        int changes = state.changesSince(displayedState);
+        if(changes == 0) return;
 
-        // TODO process movie title when movies get processed
-        txtTitle.setText(state.getTitle());
-        txtInfo.setText(state.getInfo());
-        txtInfo.setVisibility(state.getInfo().length() > 0 ? View.VISIBLE : View.GONE);
-        txtExtra.setText(state.getExtra());
-        txtExtra.setVisibility(state.getExtra().length() > 0 ? View.VISIBLE : View.GONE);
+        displayedState = state;
 
-        if(state.getPoster() != null) {
+        if((changes & PlayerState.CHANGED_PLAYBACK) != 0) {
+            setLength(state.getDuration());
+        }
+        if((changes & (PlayerState.CHANGED_POSITION | PlayerState.CHANGED_PAUSED)) != 0) {
+            // the clock already knows this report and the time passed since it
+            PlaybackClock clock = getPlaybackClock();
+            boolean extrapolate = clock != null && clock.isRunning();
+            setPosition(extrapolate ? clock.getPosition() : state.getPosition(), false);
+
+            if(extrapolate && isResumed()) {
+                restartPositionTicker();
+            }
+        }
+        if((changes & PlayerState.CHANGED_VOLUME) != 0) {
+            setVolume(state.getVolume());
+        }
+        if((changes & PlayerState.CHANGED_PAUSED) != 0) {
+            setPaused(state.isPaused());
+        }
+
+        if((changes & PlayerState.CHANGED_TITLE) != 0) {
+            // TODO process movie title when movies get processed
+            txtTitle.setText(state.getTitle());
+        }
+        if((changes & PlayerState.CHANGED_INFO) != 0) {
+            txtInfo.setText(state.getInfo());
+            txtInfo.setVisibility(state.getInfo().length() > 0 ? View.VISIBLE : View.GONE);
+            txtExtra.setText(state.getExtra());
+            txtExtra.setVisibility(state.getExtra().length() > 0 ? View.VISIBLE : View.GONE);
+        }
+
+        if((changes & PlayerState.CHANGED_POSTER) != 0 && state.getPoster() != null) {
             final Drawable poster = state.getPoster();
 
             if(!posterWasSet) {
@@ -297,7 +410,13 @@ public class PlayerFragment extends Fragment {
             }
         }
 
-        Map<PlayerProperty, String> properties = state.getProperties();
+        if((changes & PlayerState.CHANGED_PROPERTIES) != 0) {
+            processProperties(state.getProperties());
+        }
+    }
+
+    /** Displays the miscellaneous player properties (date, rating). */
+    private void processProperties(Map<PlayerProperty, String> properties) {
 
         hasMiscellaneousData = false;
         vMiscellaneous.removeAllViews();
@@ -443,6 +562,7 @@ public class PlayerFragment extends Fragment {
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         vRoot = (ViewGroup) inflater.inflate(R.layout.fragment_player, container, false);
+        displayedState = null;
 
         imgBackground       = find(R.id.img_player_bg);
         vHeader             = find(R.id.player_header);
@@ -27,6 +27,11 @@ import hu.rycus.rpiomxremote.manager.PlayerState;
  */
 public class PlayerMediaReceiver extends BroadcastReceiver {
 
+    /** The player state changes displayed as lock screen metadata. */
+    private static final int METADATA_CHANGES =
+            PlayerState.CHANGED_TITLE | PlayerState.CHANGED_INFO | PlayerState.CHANGED_PROPERTIES |
+            PlayerState.CHANGED_POSTER | PlayerState.CHANGED_PLAYBACK;
+
     /** Media control client. */
     private static RemoteControlClient remoteControlClient;
     /** Remote service instance used to control playback. */
@@ -70,12 +75,17 @@ public class PlayerMediaReceiver extends BroadcastReceiver {
      * Activates lock screen controls.
      * @param service The remote service that requested the controls
      * @param state   The current player state
+     * @param changes The player state changes since the last activation
+     *                (see the {@code CHANGED_*} flags of {@link PlayerState})
      */
-    public static void activate(RemoteService service, PlayerState state) {
+    public static void activate(RemoteService service, PlayerState state, int changes) {
         remoteService = service;
 
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            int updates = changes;
             if(remoteControlClient == null) {
+                updates = PlayerState.CHANGED_ALL;
+
                 ComponentName receiver = new ComponentName(service.getPackageName(), PlayerMediaReceiver.class.getName());
 
                 AudioManager audioManager = (AudioManager) service.getSystemService(Context.AUDIO_SERVICE);
@@ -90,84 +100,95 @@ public class PlayerMediaReceiver extends BroadcastReceiver {
                 audioManager.registerRemoteControlClient(remoteControlClient);
             }
 
-            remoteControlClient.setPlaybackState(state.isPaused() ?
-                    RemoteControlClient.PLAYSTATE_PAUSED :
-                    RemoteControlClient.PLAYSTATE_PLAYING);
-
-            remoteControlClient.setTransportControlFlags(
-                    RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE |
-                    RemoteControlClient.FLAG_KEY_MEDIA_NEXT |
-                    RemoteControlClient.FLAG_KEY_MEDIA_PREVIOUS);
-
-            RemoteControlClient.MetadataEditor editor = remoteControlClient.editMetadata(true);
-            if(state.getPoster() != null) {
-                editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, state.getPoster().getBitmap());
-            } else {
-                editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK,
-                        BitmapFactory.decodeResource(service.getResources(), R.drawable.raspberry));
+            if((updates & PlayerState.CHANGED_PAUSED) != 0) {
+                remoteControlClient.setPlaybackState(state.isPaused() ?
+                        RemoteControlClient.PLAYSTATE_PAUSED :
+                        RemoteControlClient.PLAYSTATE_PLAYING);
             }
-            editor.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION, state.getDuration());
 
-            String mainTitle = state.getTitle();
-            String subTitle = state.getInfo();
+            if(updates == PlayerState.CHANGED_ALL) {
+                remoteControlClient.setTransportControlFlags(
+                        RemoteControlClient.FLAG_KEY_MEDIA_PLAY_PAUSE |
+                        RemoteControlClient.FLAG_KEY_MEDIA_NEXT |
+                        RemoteControlClient.FLAG_KEY_MEDIA_PREVIOUS);
+            }
 
-            String showTitle = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_SHOW_TITLE));
-            String episodeTitle = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_TITLE));
+            if((updates & METADATA_CHANGES) != 0) {
+                editMetadata(service, state);
+            }
+        }
+    }
 
-            if(episodeTitle != null) {
-                mainTitle = episodeTitle;
-                if(showTitle != null) {
-                    subTitle = showTitle;
+    /** Sets the lock screen metadata (title, artwork, etc.) from the player state. */
+    private static void editMetadata(RemoteService service, PlayerState state) {
+        RemoteControlClient.MetadataEditor editor = remoteControlClient.editMetadata(true);
+        if(state.getPoster() != null) {
+            editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK, state.getPoster().getBitmap());
+        } else {
+            editor.putBitmap(RemoteControlClient.MetadataEditor.BITMAP_KEY_ARTWORK,
+                    BitmapFactory.decodeResource(service.getResources(), R.drawable.raspberry));
+        }
+        editor.putLong(MediaMetadataRetriever.METADATA_KEY_DURATION, state.getDuration());
 
-                    String season  = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_SEASON));
-                    String episode = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_EPISODE));
-                    if(season != null && episode != null) {
-                        subTitle += " - S" + season + "E" + episode;
-                    } else if(state.getExtra().length() > 0) {
-                        subTitle += " - " + state.getExtra();
-                    }
-                } else if(state.getExtra().length() > 0) {
-                    subTitle = state.getExtra();
-                }
-            } else if(showTitle != null) {
-                if(state.getInfo() != null) {
-                    mainTitle = state.getInfo();
-                    subTitle = showTitle;
-                    if(state.getExtra().length() > 0) {
-                        subTitle += " - " + state.getExtra();
-                    }
+        String mainTitle = state.getTitle();
+        String subTitle = state.getInfo();
+
+        String showTitle = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_SHOW_TITLE));
+        String episodeTitle = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_TITLE));
+
+        if(episodeTitle != null) {
+            mainTitle = episodeTitle;
+            if(showTitle != null) {
+                subTitle = showTitle;
+
+                String season  = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_SEASON));
+                String episode = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_NUM_EPISODE));
+                if(season != null && episode != null) {
+                    subTitle += " - S" + season + "E" + episode;
                 } else if(state.getExtra().length() > 0) {
-                    subTitle = state.getExtra();
+                    subTitle += " - " + state.getExtra();
                 }
-            } else {
-                mainTitle = state.getTitle();
-                subTitle = state.getInfo();
+            } else if(state.getExtra().length() > 0) {
+                subTitle = state.getExtra();
+            }
+        } else if(showTitle != null) {
+            if(state.getInfo() != null) {
+                mainTitle = state.getInfo();
+                subTitle = showTitle;
                 if(state.getExtra().length() > 0) {
                     subTitle += " - " + state.getExtra();
                 }
+            } else if(state.getExtra().length() > 0) {
+                subTitle = state.getExtra();
             }
-
-            if(mainTitle != null) {
-                editor.putString(MediaMetadataRetriever.METADATA_KEY_TITLE, mainTitle);
-            }
-            if(subTitle != null) {
-                editor.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM, subTitle);
-            }
-            String date = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_DATE));
-            if(date != null) {
-                editor.putString(MediaMetadataRetriever.METADATA_KEY_DATE, date);
+        } else {
+            mainTitle = state.getTitle();
+            subTitle = state.getInfo();
+            if(state.getExtra().length() > 0) {
+                subTitle += " - " + state.getExtra();
             }
-            /* TODO needs KitKat
-            if(Build.VERSION.SDK_INT >= 19) {
-                String rating = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_RATING));
-                if(rating != null) {
-                    editor.putObject(RemoteControlClient.MetadataEditor.RATING_KEY_BY_OTHERS,
-                                        Rating.newPercentageRating(Float.parseFloat(rating));
-                }
+        }
+
+        if(mainTitle != null) {
+            editor.putString(MediaMetadataRetriever.METADATA_KEY_TITLE, mainTitle);
+        }
+        if(subTitle != null) {
+            editor.putString(MediaMetadataRetriever.METADATA_KEY_ALBUM, subTitle);
+        }
+        String date = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_DATE));
+        if(date != null) {
+            editor.putString(MediaMetadataRetriever.METADATA_KEY_DATE, date);
+        }
+        /* TODO needs KitKat
+        if(Build.VERSION.SDK_INT >= 19) {
+            String rating = state.getProperties().get(PlayerProperty.get(PlayerProperty.P_EPISODE_RATING));
+            if(rating != null) {
+                editor.putObject(RemoteControlClient.MetadataEditor.RATING_KEY_BY_OTHERS,
+                                    Rating.newPercentageRating(Float.parseFloat(rating));
             }
-            */
-            editor.apply();
         }
+        */
+        editor.apply();
     }
 
     /** Deactivates lock screen controls. */
@@ -13,6 +13,9 @@ import hu.rycus.rpiomxremote.MainActivity;
 import hu.rycus.rpiomxremote.R;
 import hu.rycus.rpiomxremote.RemoteService;
 import hu.rycus.rpiomxremote.RemoteServiceCreator;
+import hu.rycus.rpiomxremote.manager.LatencyHistogram;
+import hu.rycus.rpiomxremote.manager.LatencyStats;
+import hu.rycus.rpiomxremote.util.Header;
 
 /**
  * Fragment displaying the current status and some shortcuts to basic functions.
@@ -24,12 +27,25 @@ import hu.rycus.rpiomxremote.RemoteServiceCreator;
  */
 public class StatusFragment extends Fragment {
 
+    /** Time in milliseconds between refreshing the latency statistics. */
+    private static final long LATENCY_REFRESH_INTERVAL = 2000L;
+
+    /** The headers of the exchanges with latency statistics and their labels. */
+    private static final int[][] LATENCY_LABELS = {
+            { Header.MSG_A_LOGIN,           R.string.st_latency_login },
+            { Header.MSG_A_LIST_FILES,      R.string.st_latency_files },
+            { Header.MSG_A_LIST_SETTINGS,   R.string.st_latency_settings },
+            { Header.MSG_A_SEEK_TO,         R.string.st_latency_seek }
+    };
+
     /** Progress bar displayed while unconnected. */
     private ProgressBar loadingProgress;
     /** Header view displaying the current status. */
     private View        statusHeader;
     /** Text displaying the current status as text. */
     private TextView    txtStatus;
+    /** Text displaying the latency statistics of the exchanges with the server. */
+    private TextView    txtLatency;
     /** Button to start remote file browsing. */
     private Button      btnBrowse;
     /** Button to display remote settings. */
@@ -45,6 +61,19 @@ public class StatusFragment extends Fragment {
         @Override
         protected void onServiceInstanceReceived(RemoteService service) {
             setConnected(service != null && service.isConnected());
+            updateLatency();
+        }
+    };
+
+    /** Task refreshing the latency statistics periodically while the fragment is resumed. */
+    private final Runnable latencyRefresher = new Runnable() {
+        @Override
+        public void run() {
+            updateLatency();
+
+            if(txtLatency != null && isResumed()) {
+                txtLatency.postDelayed(this, LATENCY_REFRESH_INTERVAL);
+            }
         }
     };
 
@@ -67,6 +96,55 @@ public class StatusFragment extends Fragment {
     public void onResume() {
         super.onResume();
         ((MainActivity) getActivity()).getSupportActionBar().setDisplayHomeAsUpEnabled(false);
+
+        if(txtLatency != null) {
+            txtLatency.post(latencyRefresher);
+        }
+    }
+
+    /** @see android.support.v4.app.Fragment#onPause() */
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        if(txtLatency != null) {
+            txtLatency.removeCallbacks(latencyRefresher);
+        }
+    }
+
+    /** Displays the p50, p99 and max latency of the exchanges and the dispatcher measured so far. */
+    private void updateLatency() {
+        if(txtLatency == null) return;
+
+        LatencyStats stats = rsc.isServiceBound() ? rsc.getService().getLatencyStats() : null;
+
+        StringBuilder builder = new StringBuilder();
+        if(stats != null) {
+            for(int[] label : LATENCY_LABELS) {
+                LatencyHistogram histogram = stats.get(label[0]);
+                if(histogram == null || histogram.getCount() == 0L) continue;
+
+                if(builder.length() > 0) builder.append('\n');
+                builder.append(getString(R.string.st_latency,
+                        getString(label[1]),
+                        histogram.getPercentile(50.0),
+                        histogram.getPercentile(99.0),
+                        histogram.getMax()));
+            }
+
+            LatencyHistogram dispatch = stats.getDispatchLatency();
+            if(dispatch.getCount() > 0L) {
+                if(builder.length() > 0) builder.append('\n');
+                builder.append(getString(R.string.st_dispatch,
+                        dispatch.getPercentile(50.0),
+                        dispatch.getPercentile(99.0),
+                        stats.getQueueDepth(),
+                        stats.getMaxQueueDepth()));
+            }
+        }
+
+        txtLatency.setText(builder);
+        txtLatency.setVisibility(builder.length() > 0 ? View.VISIBLE : View.GONE);
     }
 
     /** Sets view states according to connection status. */
@@ -104,6 +182,7 @@ public class StatusFragment extends Fragment {
         loadingProgress = (ProgressBar) root.findViewById(R.id.status_loading_progress);
         statusHeader    =               root.findViewById(R.id.container_status_header);
         txtStatus       = (TextView)    root.findViewById(R.id.txt_status);
+        txtLatency      = (TextView)    root.findViewById(R.id.txt_status_latency);
         btnBrowse       = (Button)      root.findViewById(R.id.status_btn_browse);
         btnSettings     = (Button)      root.findViewById(R.id.status_btn_settings);
 
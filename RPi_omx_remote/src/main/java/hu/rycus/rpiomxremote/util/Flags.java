@@ -14,5 +14,21 @@ public interface Flags {
     int MORE_FOLLOWS        = 0x01 << 0;
     /** This flag is set when an outgoing packet shouldn't be prefixed with session ID. */
     int WITHOUT_SESSION_ID  = 0x01 << 1;
+    /**
+     * This flag is set when a packet carries a sequence number (after the flags byte)
+     * and has to be acknowledged by the receiver.
+     */
+    int RELIABLE            = 0x01 << 2;
+    /**
+     * This flag is set on every fragment of a message whose contents
+     * (after reassembly) are compressed as a zlib stream.
+     */
+    int COMPRESSED          = 0x01 << 3;
+    /**
+     * This flag is set on a login request when the client can decompress messages
+     * sent with the {@link #COMPRESSED} flag (servers not knowing it ignore it
+     * like any other unknown flag bit).
+     */
+    int ACCEPTS_COMPRESSED  = 0x01 << 4;
 
 }
@@ -36,4 +36,9 @@ public interface Header {
 
     int MSG_A_ERROR_INVALID_SESSION = 0xF1;
 
+    /* These headers are only used with servers advertising the matching capability. */
+
+    /** Acknowledges a reliable message, the contents are its 16 bit sequence number. */
+    int MSG_A_ACK           = 0xE3;
+
 }